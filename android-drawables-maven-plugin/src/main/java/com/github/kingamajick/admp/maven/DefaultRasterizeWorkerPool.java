@@ -0,0 +1,185 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Disposable;
+
+import com.github.kingamajick.admp.maven.transcoder.SVGRenderer;
+import com.github.kingamajick.admp.maven.transcoder.TranscoderFactory;
+import com.github.kingamajick.admp.maven.transcoder.TranscoderFactoryException;
+
+/**
+ * The {@link RasterizeWorkerPool} registered as a singleton component, so one pool is shared by every module of the build. Each thread of
+ * the pool renders a small SVG when it starts, so the Batik classes are loaded and the rendering code is compiled before the first real
+ * SVG is rendered. The threads are daemon threads, and are stopped when the component is disposed at the end of the build.
+ * 
+ * @author R King
+ * 
+ */
+public class DefaultRasterizeWorkerPool implements RasterizeWorkerPool, Disposable {
+
+	private static final String WARM_UP_SVG = "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"16\" height=\"16\">"
+			+ "<path d=\"M2,2 L14,2 L8,14 Z\" fill=\"#808080\" stroke=\"#000000\" /></svg>";
+
+	/**
+	 * The number of threads in the pool, if 0 or less the number of available processors is used. Set from the component configuration.
+	 */
+	private int threads;
+
+	private ExecutorService executor;
+
+	private final ThreadLocal<Map<String, ImageTranscoder>> transcoders = new ThreadLocal<Map<String, ImageTranscoder>>() {
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.ThreadLocal#initialValue()
+		 */
+		protected Map<String, ImageTranscoder> initialValue() {
+			return new HashMap<String, ImageTranscoder>();
+		}
+	};
+
+	public DefaultRasterizeWorkerPool() {
+	}
+
+	/**
+	 * @param threads
+	 *            the number of threads in the pool, if 0 or less the number of available processors is used.
+	 */
+	public DefaultRasterizeWorkerPool(final int threads) {
+		this.threads = threads;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.kingamajick.admp.maven.RasterizeWorkerPool#execute(java.util.concurrent.Callable)
+	 */
+	public <T> T execute(final Callable<T> task) throws ExecutionException, InterruptedException {
+		return getExecutor().submit(task).get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.kingamajick.admp.maven.RasterizeWorkerPool#getTranscoder(com.github.kingamajick.admp.maven.transcoder.TranscoderFactory,
+	 * java.lang.String, java.lang.String)
+	 */
+	public ImageTranscoder getTranscoder(final TranscoderFactory factory, final String type, final String profile) throws TranscoderFactoryException {
+		Map<String, ImageTranscoder> threadTranscoders = this.transcoders.get();
+		String key = type + ";" + profile;
+		ImageTranscoder transcoder = threadTranscoders.get(key);
+		if (transcoder == null) {
+			transcoder = factory.create(type, profile);
+			threadTranscoders.put(key, transcoder);
+		}
+		return transcoder;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.github.kingamajick.admp.maven.RasterizeWorkerPool#getThreads()
+	 */
+	public int getThreads() {
+		return this.threads > 0 ? this.threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.codehaus.plexus.personality.plexus.lifecycle.phase.Disposable#dispose()
+	 */
+	public synchronized void dispose() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * The executor is created on first use, as the component is configured after it has been constructed.
+	 * 
+	 * @return the executor running the pool's threads.
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if (this.executor == null) {
+			this.executor = Executors.newFixedThreadPool(getThreads(), new WorkerThreadFactory());
+		}
+		return this.executor;
+	}
+
+	/**
+	 * Renders a small SVG, loading the Batik classes used to parse, render and encode SVGs.
+	 */
+	static void warmUp() {
+		try {
+			SAXSVGDocumentFactory svgDocFactory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+			SVGRenderer renderer = new SVGRenderer(new UserAgentAdapter(), svgDocFactory.createDocument("file:/warm-up.svg",
+					new ByteArrayInputStream(WARM_UP_SVG.getBytes("UTF-8"))));
+			try {
+				renderer.render(new PNGTranscoder(), 16, new ByteArrayOutputStream());
+			}
+			finally {
+				renderer.dispose();
+			}
+		}
+		catch (Exception e) {
+			// Warming up is only an optimisation, any real problem will be reported when the SVGs are rasterized.
+		}
+	}
+
+	/**
+	 * Creates daemon threads which warm up before running their first task.
+	 */
+	private static final class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+		 */
+		public Thread newThread(final Runnable r) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					warmUp();
+					r.run();
+				}
+			}, "android-drawables-rasterize-" + this.count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import com.github.kingamajick.admp.maven.util.Checksums;
+import com.github.kingamajick.admp.maven.util.Constants;
+import com.github.kingamajick.admp.maven.util.DrawablePaths;
+
+/**
+ * Packages the contents of <code>'${project.build.outputDirectory}'</code> as an 'android-drawables' artifact. Images are stored rather
+ * than deflated, as they are already compressed, and every other file is deflated. Entries are sorted by path and have a fixed
+ * modification time, so the same contents always produce a byte identical artifact.
+ * <p>
+ * The artifact contains an index, {@link Constants#DRAWABLES_INDEX}, recording each image as
+ * <code>${path}=${density},${size},${crc}</code>, where the density is that of the image's directory, empty if it has none, and the CRC-32
+ * is in hex.
+ * 
+ * @author R King
+ * 
+ * @goal package
+ * @threadSafe
+ */
+public class PackageDrawablesMojo extends AbstractMojo {
+
+	/**
+	 * The modification time of every entry, 1980-02-01 00:00 in the time zone of the build. Zip files record modification times in local
+	 * time, so the bytes written are the same in every time zone.
+	 */
+	private static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1).getTimeInMillis();
+
+	/**
+	 * @parameter expression = "${project}"
+	 * @readonly
+	 */
+	private MavenProject project;
+
+	/**
+	 * The directory whose contents are packaged.
+	 * 
+	 * @parameter expression = "${project.build.outputDirectory}"
+	 * @readonly
+	 */
+	private File classesDirectory;
+
+	/**
+	 * The directory the artifact is written to.
+	 * 
+	 * @parameter expression = "${project.build.directory}"
+	 * @readonly
+	 */
+	private File outputDirectory;
+
+	/**
+	 * The name of the artifact, without its extension.
+	 * 
+	 * @parameter expression = "${project.build.finalName}"
+	 * @readonly
+	 */
+	private String finalName;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.maven.plugin.Mojo#execute()
+	 */
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		File artifactFile = new File(this.outputDirectory, this.finalName + ".jar");
+		if (!this.classesDirectory.isDirectory()) {
+			getLog().warn(this.classesDirectory + " doesn't exist, the artifact will only contain an empty index");
+		}
+		try {
+			int images = createArchive(this.classesDirectory, artifactFile);
+			getLog().info("Packaged " + images + " drawables in " + artifactFile);
+		}
+		catch (IOException e) {
+			throw new MojoExecutionException("Unable to create " + artifactFile.getAbsolutePath(), e);
+		}
+		this.project.getArtifact().setFile(artifactFile);
+	}
+
+	/**
+	 * Writes every file in the directory to the archive, followed by the index of the images written.
+	 * 
+	 * @param directory
+	 * @param archive
+	 * @return the number of images written.
+	 * @throws IOException
+	 */
+	int createArchive(final File directory, final File archive) throws IOException {
+		List<String> paths = new ArrayList<String>();
+		if (directory.isDirectory()) {
+			for (Object path : FileUtils.getFileNames(directory, null, Constants.DRAWABLES_INDEX, false)) {
+				paths.add(((String) path).replace(File.separatorChar, '/'));
+			}
+		}
+		Collections.sort(paths);
+
+		File parent = archive.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Unable to make directory " + parent.getAbsolutePath());
+		}
+		Properties index = new Properties();
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(archive));
+		try {
+			for (String path : paths) {
+				File file = new File(directory, path);
+				ZipEntry zipEntry = new ZipEntry(path);
+				zipEntry.setTime(ENTRY_TIME);
+				if (Constants.IMAGE_TYPES.contains(FilenameUtils.getExtension(path))) {
+					long crc = Checksums.crc32(file);
+					zipEntry.setMethod(ZipEntry.STORED);
+					zipEntry.setSize(file.length());
+					zipEntry.setCompressedSize(file.length());
+					zipEntry.setCrc(crc);
+					String density = DrawablePaths.getDensity(DrawablePaths.getDirectoryName(path));
+					index.setProperty(path, (density != null ? density : "") + "," + file.length() + "," + Long.toHexString(crc));
+				}
+				zos.putNextEntry(zipEntry);
+				InputStream is = new FileInputStream(file);
+				try {
+					IOUtil.copy(is, zos);
+				}
+				finally {
+					is.close();
+				}
+				zos.closeEntry();
+			}
+			ZipEntry indexEntry = new ZipEntry(Constants.DRAWABLES_INDEX);
+			indexEntry.setTime(ENTRY_TIME);
+			zos.putNextEntry(indexEntry);
+			zos.write(formatIndex(index).getBytes("ISO-8859-1"));
+			zos.closeEntry();
+		}
+		finally {
+			zos.close();
+		}
+		return index.size();
+	}
+
+	/**
+	 * Formats the index as a properties file without the date comment {@link Properties#store(java.io.Writer, String)} adds, and with its
+	 * lines sorted and separated by <code>\n</code>, so that the same index is always formatted the same.
+	 * 
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 */
+	static String formatIndex(final Properties index) throws IOException {
+		StringWriter writer = new StringWriter();
+		index.store(writer, null);
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new StringReader(writer.toString()));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (!line.startsWith("#")) {
+				lines.add(line);
+			}
+		}
+		Collections.sort(lines);
+		StringBuilder formatted = new StringBuilder();
+		for (String sortedLine : lines) {
+			formatted.append(sortedLine).append('\n');
+		}
+		return formatted.toString();
+	}
+
+}
@@ -15,9 +15,30 @@
  */
 package com.github.kingamajick.admp.maven;
 
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
 
 import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.AbstractMojo;
@@ -25,8 +46,19 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.codehaus.plexus.util.FileUtils;
 
+import com.github.kingamajick.admp.maven.beans.Density;
+import com.github.kingamajick.admp.maven.transcoder.ImageDownsampler;
+import com.github.kingamajick.admp.maven.transcoder.PNGCruncher;
+import com.github.kingamajick.admp.maven.transcoder.PNGEncoder;
 import com.github.kingamajick.admp.maven.util.Asserts;
+import com.github.kingamajick.admp.maven.util.Checksums;
 import com.github.kingamajick.admp.maven.util.Constants;
+import com.github.kingamajick.admp.maven.util.FileLinks;
+import com.github.kingamajick.admp.maven.util.RasterizeCache;
+import com.github.kingamajick.admp.maven.util.RasterizeManifest;
+import com.github.kingamajick.admp.maven.util.SourceFile;
+import com.github.kingamajick.admp.maven.util.SourceIndex;
+import com.github.kingamajick.admp.maven.util.SourceScanner;
 
 /**
  * 
@@ -42,11 +74,18 @@ import com.github.kingamajick.admp.maven.util.Constants;
  * </ul>
  * Any files contained within sub directories of the above will have their name created from their path. For example
  * <code>/${subDir1}/${subDir2}/${imageFileName}</code> will be named <code>${subDir1}_${subDir2}_${imageFileName}</code>. All names will be
- * in lower case.
+ * in lower case. Images can be selected with <code>includes</code> and <code>excludes</code> patterns relative to the resource directory,
+ * for example <code>hdpi/icons/**</code>.
+ * <p>
+ * Images are copied in parallel, and when built incrementally an image is only copied if its destination differs from it in size or
+ * modification time. The outputs of images which have since been removed are deleted. PNGs can optionally be crunched, i.e. losslessly
+ * recompressed and stripped of their metadata, see {@link PNGCruncher}. PNGs present at only one of the densities of
+ * {@link Density#defaults(List)} can optionally be downscaled to generate the lower densities they are missing.
  * 
  * @author R King
  * 
  * @goal static-resources
+ * @threadSafe
  */
 // TODO: Check for bad drawable names
 public class ProcessBitmapResourcesMojo extends AbstractMojo {
@@ -63,6 +102,90 @@ public class ProcessBitmapResourcesMojo extends AbstractMojo {
 	 */
 	File targetDir;
 
+	/**
+	 * Patterns, relative to the resource directories, of the images to copy. If not set every image is copied.
+	 * 
+	 * @parameter
+	 */
+	List<String> includes;
+
+	/**
+	 * Patterns, relative to the resource directories, of the images not to copy.
+	 * 
+	 * @parameter
+	 */
+	List<String> excludes;
+
+	/**
+	 * If true, images whose destination has the same size and modification time are not copied again, and the outputs of images which
+	 * have been removed since the last build are deleted.
+	 * 
+	 * @parameter expression="${incremental}" default-value = "true"
+	 */
+	boolean incremental;
+
+	/**
+	 * The location of the manifest of the images copied, used to delete the outputs of removed images.
+	 * 
+	 * @parameter expression="${staticResourcesManifestFile}" default-value =
+	 *            "${project.build.directory}/android-drawables-maven-plugin/static-resources.properties"
+	 */
+	File manifestFile;
+
+	/**
+	 * The number of threads used to copy images, if 0 one thread per processor is used.
+	 * 
+	 * @parameter expression="${copyThreads}" default-value = "0"
+	 */
+	int copyThreads;
+
+	/**
+	 * If true, images are hard linked to their destination rather than copied, where the file system and the JVM running the build
+	 * support it. Images which can't be linked are copied.
+	 * 
+	 * @parameter expression="${linkResources}" default-value = "false"
+	 */
+	boolean linkResources;
+
+	/**
+	 * If true, PNGs (other than nine-patches) are losslessly recompressed and stripped of ancillary chunks rather than copied, if that
+	 * makes them smaller. Crunched PNGs are stored in a persistent cache keyed by a checksum of the original, so a PNG is never crunched
+	 * twice.
+	 * 
+	 * @parameter expression="${crunch}" default-value = "false"
+	 */
+	boolean crunch;
+
+	/**
+	 * If true, PNGs (other than nine-patches) which are present at only one of the densities ldpi, mdpi, hdpi or xhdpi are downscaled to
+	 * generate the lower of those densities, using the scale factors of the default densities. Images are never upscaled, and an image is
+	 * never generated at a density which already has an image of the same name, whatever its type. Generated images are stored in a
+	 * persistent cache keyed by a checksum of the original.
+	 * 
+	 * @parameter expression="${generateDensities}" default-value = "false"
+	 */
+	boolean generateDensities;
+
+	/**
+	 * The location of the cache of crunched and generated PNGs, shared with the rasterize cache.
+	 * 
+	 * @parameter expression="${cacheDirectory}" default-value = "${settings.localRepository}/.cache/android-drawables-maven-plugin"
+	 */
+	File cacheDirectory;
+
+	/**
+	 * The maximum size of the cache in megabytes, once exceeded the least recently used entries are removed at the end of the build.
+	 * 
+	 * @parameter expression="${cacheMaxSize}" default-value = "512"
+	 */
+	int cacheMaxSize;
+
+	/**
+	 * @parameter default-value="${plugin.version}"
+	 * @readonly
+	 */
+	String pluginVersion;
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -72,87 +195,470 @@ public class ProcessBitmapResourcesMojo extends AbstractMojo {
 		if (this.resources.size() == 0) {
 			return;
 		}
+		RasterizeManifest previousManifest = new RasterizeManifest();
+		if (this.incremental) {
+			previousManifest = RasterizeManifest.load(this.manifestFile);
+			// Remove the manifest until this run completes, so a failed run can't leave a manifest describing partially copied outputs.
+			if (this.manifestFile.exists() && !this.manifestFile.delete()) {
+				throw new MojoExecutionException("Unable to delete manifest " + this.manifestFile.getAbsolutePath());
+			}
+		}
+		// Outputs keyed by their path relative to the target directory, a later resource directory overrides an earlier one.
+		Map<String, ImageResource> copies = new LinkedHashMap<String, ImageResource>();
+		ImageDerivation crunchDerivation = this.crunch ? new CrunchDerivation() : null;
+		SourceScanner scanner = new SourceScanner(Constants.IMAGE_TYPES, Arrays.asList(Constants.STATIC_IMAGE_DIRS), this.includes, this.excludes);
 		for (Resource resource : this.resources) {
-			File resourcesDir = new File(resource.getDirectory());
+			SourceIndex index = scanner.scan(new File(resource.getDirectory()));
 			for (String imageResolutionDirName : Constants.STATIC_IMAGE_DIRS) {
-				File imageResolutionDir = new File(resourcesDir, imageResolutionDirName);
-				if (imageResolutionDir.exists() || imageResolutionDir.isDirectory()) {
-					try {
-						copyImageResources(new File(this.targetDir, Constants.DRAWABLE_PREFIX + imageResolutionDirName), imageResolutionDir);
-					}
-					catch (IOException e) {
-						throw new MojoFailureException("Unable to copy static resources", e);
-					}
-				}
-				else {
+				List<SourceFile> images = index.getFilesByDensity(imageResolutionDirName);
+				if (images.isEmpty()) {
 					getLog().info("No image resources defined for " + imageResolutionDirName);
 					continue;
 				}
+				for (SourceFile image : images) {
+					String output = Constants.DRAWABLE_PREFIX + imageResolutionDirName + "/"
+							+ (image.getName() + "." + image.getType()).toLowerCase(Locale.ENGLISH);
+					copies.put(output, new ImageResource(image, isCrunchable(output) ? crunchDerivation : null));
+				}
+			}
+		}
+		if (this.generateDensities) {
+			getLog().info("Generating " + addGeneratedDensities(copies) + " images for missing densities");
+		}
+
+		RasterizeManifest manifest = new RasterizeManifest();
+		manifest.setSettings(getSettings());
+		Set<String> previousOutputs = previousManifest.getOutputs();
+		if (!manifest.getSettings().equals(previousManifest.getSettings())) {
+			// The outputs recorded were copied with different settings, so none of them can be reused.
+			previousManifest = new RasterizeManifest();
+		}
+		RasterizeCache imageCache = this.crunch || this.generateDensities ? new RasterizeCache(this.cacheDirectory, this.cacheMaxSize * 1024L * 1024L)
+				: null;
+		int copied;
+		try {
+			copied = copyImageResources(copies, previousManifest, manifest, imageCache);
+		}
+		catch (IOException e) {
+			throw new MojoFailureException("Unable to copy static resources", e);
+		}
+		if (imageCache != null) {
+			getLog().info("Image cache: " + imageCache.getHits() + " hits, " + imageCache.getMisses() + " misses");
+			imageCache.evict();
+		}
+		if (this.incremental) {
+			for (String output : copies.keySet()) {
+				manifest.addOutput(this.targetDir, output);
+			}
+			try {
+				manifest.store(this.manifestFile);
 			}
+			catch (IOException e) {
+				throw new MojoExecutionException("Unable to write manifest " + this.manifestFile.getAbsolutePath(), e);
+			}
+			deleteStaleOutputs(previousOutputs, copies.keySet());
 		}
+		getLog().info("Copied " + copied + " static resources, " + (copies.size() - copied) + " were up to date");
+	}
+
+	/**
+	 * @return a description of the plugin configuration which affects the outputs, if this changes between builds every image must be
+	 *         copied again.
+	 */
+	String getSettings() {
+		return this.pluginVersion + ";crunch=" + this.crunch + ";generateDensities=" + this.generateDensities;
 	}
 
 	/**
-	 * Copies all images resources ({@link Constants#IMAGE_TYPES}) found in the list of files (and its sub directories) to the output
-	 * directory. All images will be given lower case names and any images contained in sub directories will be named as follows:
-	 * ${subDir1}_${subDir2}_${imageFileName}, these steps guarantee compatibility with android resource file names restrictions.
+	 * Adds the images generated for the densities of {@link Density#defaults(List)} which are missing a PNG present at only one of those
+	 * densities, by downscaling it. Only densities lower than that of the PNG, and without an image of the same resource name of any type,
+	 * are generated, as aapt rejects two images with the same resource name at the same density.
 	 * 
-	 * @param outputDir
-	 * @param rootDirectory
+	 * @param images
+	 *            The images keyed by the path of their output, relative to the target directory.
+	 * @return the number of images added.
+	 */
+	int addGeneratedDensities(final Map<String, ImageResource> images) {
+		List<Density> densities = new ArrayList<Density>();
+		Density.defaults(densities);
+		Map<String, Density> densitiesByName = new HashMap<String, Density>();
+		for (Density density : densities) {
+			densitiesByName.put(density.getName(), density);
+		}
+		// The densities which have an image of each resource name, of any type, and the outputs of the PNGs which can be downscaled.
+		Map<String, Set<String>> presentDensities = new HashMap<String, Set<String>>();
+		Map<String, List<String>> pngOutputs = new LinkedHashMap<String, List<String>>();
+		for (String output : images.keySet()) {
+			int separator = output.indexOf('/');
+			String densityName = output.substring(0, separator);
+			if (!densitiesByName.containsKey(densityName)) {
+				continue;
+			}
+			String resourceName = getResourceName(output.substring(separator + 1));
+			Set<String> present = presentDensities.get(resourceName);
+			if (present == null) {
+				present = new HashSet<String>();
+				presentDensities.put(resourceName, present);
+			}
+			present.add(densityName);
+			if (isCrunchable(output)) {
+				List<String> outputs = pngOutputs.get(resourceName);
+				if (outputs == null) {
+					outputs = new ArrayList<String>();
+					pngOutputs.put(resourceName, outputs);
+				}
+				outputs.add(output);
+			}
+		}
+		int generated = 0;
+		for (Map.Entry<String, List<String>> pngs : pngOutputs.entrySet()) {
+			if (pngs.getValue().size() != 1) {
+				continue;
+			}
+			String masterOutput = pngs.getValue().get(0);
+			int separator = masterOutput.indexOf('/');
+			Density master = densitiesByName.get(masterOutput.substring(0, separator));
+			String fileName = masterOutput.substring(separator + 1);
+			SourceFile source = images.get(masterOutput).source;
+			Set<String> present = presentDensities.get(pngs.getKey());
+			for (Density density : densities) {
+				if (density.getScaleFactor() < master.getScaleFactor() && !present.contains(density.getName())) {
+					getLog().debug("Generating " + density.getName() + "/" + fileName + " from " + source);
+					images.put(density.getName() + "/" + fileName,
+							new ImageResource(source, new DownscaleDerivation(density.getScaleFactor() / master.getScaleFactor())));
+					generated++;
+				}
+			}
+		}
+		return generated;
+	}
+
+	/**
+	 * Copies the images to their outputs in parallel. All images will be given lower case names and any images contained in sub
+	 * directories will be named as follows: ${subDir1}_${subDir2}_${imageFileName}, these steps guarantee compatibility with android
+	 * resource file names restrictions.
+	 * 
+	 * @param copies
+	 *            The images keyed by the path of their output, relative to the target directory.
+	 * @param previousManifest
+	 *            The manifest of the previous build.
+	 * @param manifest
+	 *            The manifest of this build, which the checksums of the sources of derived images are recorded in.
+	 * @param imageCache
+	 *            The cache of derived images, or null if no images are derived.
+	 * @return the number of images copied, i.e. those which weren't up to date.
 	 * @throws IOException
 	 */
-	void copyImageResources(final File outputDir, final File rootDirectory) throws IOException {
-		Asserts.notNull(outputDir, "outputDir");
-		Asserts.notNull(rootDirectory, "files");
+	int copyImageResources(final Map<String, ImageResource> copies, final RasterizeManifest previousManifest, final RasterizeManifest manifest,
+			final RasterizeCache imageCache) throws IOException {
+		Asserts.notNull(copies, "copies");
 
-		copyImageResources(outputDir, "", rootDirectory.listFiles());
+		if (copies.isEmpty()) {
+			return 0;
+		}
+		int threads = this.copyThreads > 0 ? this.copyThreads : Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, copies.size()));
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (final Map.Entry<String, ImageResource> copy : copies.entrySet()) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() throws IOException {
+						ImageResource image = copy.getValue();
+						if (image.derivation != null) {
+							return deriveImageResource(image, copy.getKey(), previousManifest, manifest, imageCache);
+						}
+						return copyImageResource(image.source, new File(ProcessBitmapResourcesMojo.this.targetDir, copy.getKey()));
+					}
+				}));
+			}
+			int copied = 0;
+			for (Future<Boolean> result : results) {
+				try {
+					if (result.get()) {
+						copied++;
+					}
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException(e.getCause());
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while copying static resources");
+				}
+			}
+			return copied;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param fileName
+	 * @return the name of the Android resource the image provides, i.e. its file name without the extension or nine-patch suffix.
+	 */
+	static String getResourceName(final String fileName) {
+		String resourceName = fileName.substring(0, fileName.lastIndexOf('.') < 0 ? fileName.length() : fileName.lastIndexOf('.'));
+		return resourceName.endsWith(".9") ? resourceName.substring(0, resourceName.length() - 2) : resourceName;
+	}
+
+	/**
+	 * @param output
+	 * @return true if the output is a PNG other than a nine-patch, whose chunks are needed by aapt.
+	 */
+	static boolean isCrunchable(final String output) {
+		return output.endsWith(".png") && !output.endsWith(".9.png");
 	}
 
 	/**
-	 * Copies the image resources ({@link Constants#IMAGE_TYPES}) to the output directory prefixing the file name with the file name prefix
-	 * argument. The file name will also be in lower case, these steps guarantee compatibility with android resource file names
-	 * restrictions. If a sub directory is discovered in the list of files, this method will be recursively called with the file name prefix
-	 * of the directory name postfixed with a '_'.
+	 * Copies, or links if {@link #linkResources} is set, the image to its destination unless the destination is up to date. The
+	 * modification time of a copy is set to that of the image, so that it is found to be up to date by the next build. The length and
+	 * modification time of the image are those cached when it was scanned.
 	 * 
-	 * @param outputDir
-	 *            The location to copy the files to.
-	 * @param fileNamePrefix
-	 *            The prefix to append to the output file name.
-	 * @param files
-	 *            The list of files to copy.
+	 * @param source
+	 * @param destination
+	 * @return true if the image was copied, false if its destination was up to date.
 	 * @throws IOException
 	 */
-	void copyImageResources(final File outputDir, final String fileNamePrefix, final File[] files) throws IOException {
-		Asserts.notNull(fileNamePrefix, "fileNamePrefix");
+	boolean copyImageResource(final SourceFile source, final File destination) throws IOException {
+		if (this.incremental && destination.isFile() && destination.length() == source.getLength() && destination.lastModified() == source.getLastModified()) {
+			getLog().debug(destination + " is up to date");
+			return false;
+		}
+		prepareDestination(destination);
+		if (this.linkResources && createLink(source.getFile(), destination)) {
+			getLog().debug("Linking " + source + " -> " + destination);
+			return true;
+		}
+		getLog().debug("Copying " + source + " -> " + destination);
+		FileUtils.copyFile(source.getFile(), destination);
+		if (!destination.setLastModified(source.getLastModified())) {
+			getLog().debug("Unable to set the modification time of " + destination);
+		}
+		return true;
+	}
 
-		for (File file : files) {
-			if (file.isFile() && isImageFile(file)) {
-				File destination = new File(outputDir, fileNamePrefix.toLowerCase() + file.getName().toLowerCase());
-				getLog().debug("Copying " + file + " -> " + destination);
-				FileUtils.copyFile(file, destination);
+	/**
+	 * Derives the image's output from its source, unless the output is unchanged since the previous build and the source has the checksum
+	 * recorded then. The output is fetched from the cache if it has been derived from the same source before, otherwise it is derived and
+	 * stored in the cache.
+	 * 
+	 * @param image
+	 * @param output
+	 *            the path of the output, relative to the target directory.
+	 * @param previousManifest
+	 * @param manifest
+	 * @param imageCache
+	 * @return true if the output was derived or fetched from the cache, false if it was up to date.
+	 * @throws IOException
+	 */
+	boolean deriveImageResource(final ImageResource image, final String output, final RasterizeManifest previousManifest,
+			final RasterizeManifest manifest, final RasterizeCache imageCache) throws IOException {
+		File destination = new File(this.targetDir, output);
+		String checksum = previousManifest.checksum(output, image.source);
+		manifest.addSource(output, image.source, checksum);
+		if (this.incremental && checksum.equals(previousManifest.getSourceChecksum(output)) && previousManifest.isOutputUnchanged(this.targetDir, output)) {
+			getLog().debug(destination + " is up to date");
+			return false;
+		}
+		prepareDestination(destination);
+		String key = Checksums.sha1(checksum, image.derivation.getKey(), this.pluginVersion);
+		if (imageCache.fetch(key, "png", destination)) {
+			getLog().debug("Fetched " + image.derivation.getKey() + " of " + image.source + " -> " + destination + " from the cache");
+		}
+		else {
+			getLog().debug("Writing " + image.derivation.getKey() + " of " + image.source + " -> " + destination);
+			image.derivation.derive(image.source.getFile(), destination);
+			try {
+				imageCache.store(key, "png", destination);
 			}
-			else {
-				copyImageResources(outputDir, file.getName() + "_", file.listFiles());
+			catch (IOException e) {
+				getLog().warn("Unable to store " + destination + " in the cache", e);
 			}
 		}
+		if (!destination.setLastModified(image.source.getLastModified())) {
+			getLog().debug("Unable to set the modification time of " + destination);
+		}
+		return true;
 	}
 
 	/**
-	 * Checks if the file ends with an extension specified in {@link Constants#IMAGE_TYPES}.
+	 * Creates the parent directory of the destination and deletes the destination if it exists. The destination may be a link to an
+	 * image, so it is always replaced rather than written to.
 	 * 
-	 * @param fileName
-	 * @return
+	 * @param destination
+	 * @throws IOException
 	 */
-	boolean isImageFile(final File file) {
-		Asserts.notNull(file, "file");
+	void prepareDestination(final File destination) throws IOException {
+		File parent = destination.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Unable to make directory " + parent.getAbsolutePath());
+		}
+		if (destination.exists() && !destination.delete()) {
+			throw new IOException("Unable to delete " + destination.getAbsolutePath());
+		}
+	}
 
-		String fileName = file.getName().toLowerCase();
-		for (String imageType : Constants.IMAGE_TYPES) {
-			if (fileName.endsWith(imageType)) {
-				return true;
-			}
+	/**
+	 * Creates a hard link from the destination to the source, see {@link FileLinks#createLink(File, File)}.
+	 * 
+	 * @param source
+	 * @param destination
+	 * @return false if the link couldn't be created, in which case the image should be copied.
+	 */
+	boolean createLink(final File source, final File destination) {
+		try {
+			FileLinks.createLink(source, destination);
+			return true;
+		}
+		catch (IOException e) {
+			getLog().debug(e.getMessage() + ", copying it instead");
 		}
 		return false;
 	}
 
+	/**
+	 * Deletes the outputs recorded by the previous build which weren't copied by this build, as their images no longer exist.
+	 * 
+	 * @param previousOutputs
+	 *            the paths, relative to the target directory, of the outputs of the previous build.
+	 * @param outputs
+	 *            the paths of the outputs of this build.
+	 */
+	void deleteStaleOutputs(final Set<String> previousOutputs, final Set<String> outputs) {
+		previousOutputs.removeAll(outputs);
+		for (String staleOutput : previousOutputs) {
+			File staleFile = new File(this.targetDir, staleOutput);
+			if (staleFile.exists()) {
+				getLog().debug("Deleting " + staleFile + ", its source no longer exists");
+				if (!staleFile.delete()) {
+					getLog().warn("Unable to delete " + staleFile);
+				}
+			}
+		}
+	}
+
+	/**
+	 * An image to be written to an output, either copied from its source or derived from it.
+	 */
+	static final class ImageResource {
+
+		final SourceFile source;
+
+		/**
+		 * How the output is derived from the source, or null if the source is copied.
+		 */
+		final ImageDerivation derivation;
+
+		ImageResource(final SourceFile source, final ImageDerivation derivation) {
+			this.source = source;
+			this.derivation = derivation;
+		}
+	}
+
+	/**
+	 * Writes a PNG derived from a source image, such as a crunched or downscaled copy of it.
+	 */
+	interface ImageDerivation {
+
+		/**
+		 * @return a description of the derivation, which together with the checksum of the source keys the derived PNG in the cache.
+		 */
+		String getKey();
+
+		/**
+		 * @param source
+		 * @param destination
+		 * @throws IOException
+		 */
+		void derive(File source, File destination) throws IOException;
+	}
+
+	/**
+	 * Crunches the source, or copies it if it can't be made any smaller.
+	 */
+	static final class CrunchDerivation implements ImageDerivation {
+
+		private final PNGCruncher cruncher = new PNGCruncher();
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.ProcessBitmapResourcesMojo.ImageDerivation#getKey()
+		 */
+		public String getKey() {
+			return "crunch";
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.ProcessBitmapResourcesMojo.ImageDerivation#derive(java.io.File, java.io.File)
+		 */
+		public void derive(final File source, final File destination) throws IOException {
+			if (!this.cruncher.crunch(source, destination)) {
+				FileUtils.copyFile(source, destination);
+			}
+		}
+	}
+
+	/**
+	 * Downscales the source by a ratio with an {@link ImageDownsampler}, and encodes it as an optimized PNG.
+	 */
+	static final class DownscaleDerivation implements ImageDerivation {
+
+		private static final PNGEncoder ENCODER = new PNGEncoder(9, true);
+
+		private final float ratio;
+
+		DownscaleDerivation(final float ratio) {
+			this.ratio = ratio;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.ProcessBitmapResourcesMojo.ImageDerivation#getKey()
+		 */
+		public String getKey() {
+			return "downscale " + this.ratio;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.ProcessBitmapResourcesMojo.ImageDerivation#derive(java.io.File, java.io.File)
+		 */
+		public void derive(final File source, final File destination) throws IOException {
+			BufferedImage image = ImageIO.read(source);
+			if (image == null) {
+				throw new IOException("Unable to read image " + source.getAbsolutePath());
+			}
+			if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+				BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+				Graphics2D g = argb.createGraphics();
+				try {
+					g.drawImage(image, 0, 0, null);
+				}
+				finally {
+					g.dispose();
+				}
+				image = argb;
+			}
+			int width = Math.max(1, Math.round(image.getWidth() * this.ratio));
+			int height = Math.max(1, Math.round(image.getHeight() * this.ratio));
+			BufferedImage scaled = ImageDownsampler.downsample(image, width, height);
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(destination));
+			try {
+				ENCODER.encode(scaled, os);
+			}
+			finally {
+				os.close();
+			}
+		}
+	}
+
 }
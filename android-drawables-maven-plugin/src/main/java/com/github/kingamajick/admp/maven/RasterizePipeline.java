@@ -0,0 +1,999 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.batik.bridge.UserAgent;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.svg.SVGSVGElement;
+
+import com.github.kingamajick.admp.maven.beans.Density;
+import com.github.kingamajick.admp.maven.transcoder.ImageDownsampler;
+import com.github.kingamajick.admp.maven.transcoder.PNGEncoder;
+import com.github.kingamajick.admp.maven.transcoder.ProfiledPNGTranscoder;
+import com.github.kingamajick.admp.maven.transcoder.SVGRenderer;
+import com.github.kingamajick.admp.maven.transcoder.TranscoderFactoryException;
+import com.github.kingamajick.admp.maven.transcoder.UnsupportedSVGException;
+import com.github.kingamajick.admp.maven.transcoder.VectorDrawableConverter;
+import com.github.kingamajick.admp.maven.util.Checksums;
+import com.github.kingamajick.admp.maven.util.Constants;
+import com.github.kingamajick.admp.maven.util.RasterizeCache;
+
+/**
+ * Rasterizes SVGs in four stages, each run by its own pool of threads and connected to the next by a bounded queue:
+ * <ol>
+ * <li>parse : converts the SVG to a VectorDrawable if <code>vectorDrawables</code> is set and the SVG can be converted, otherwise copies
+ * any images already in the rasterize cache, and parses the SVG if any densities remain to be rendered.</li>
+ * <li>render : builds the GVT tree of the SVG and paints it at each remaining density.</li>
+ * <li>encode : encodes each rendered image using the transcoder.</li>
+ * <li>write : writes each encoded image to the target directory, and stores it in the rasterize cache.</li>
+ * </ol>
+ * At most <code>maxRenderedImages</code> rendered images are held in memory, from the point they are created until they have been
+ * encoded, and the {@link RasterizeScheduler} only admits an image for rendering while the estimated memory of the images in memory stays
+ * within <code>maxRenderMemory</code>. The render stage always takes the largest of the parsed SVGs waiting, so the largest images are
+ * rendered while there is most room for them and small images fill the gaps at the end. PNG images with more than
+ * <code>tiledRenderThreshold</code> pixels are painted and encoded by the render stage a strip of <code>tileHeight</code> rows at a time,
+ * so only a single strip is held in memory, and are written directly to their output file.
+ * <p>
+ * With the <code>downsample</code> density strategy each SVG is only rendered at its largest density, and the encode stage produces the
+ * other densities from that image by area averaging, so the densities of a SVG are downsampled in parallel. SVGs matching
+ * <code>downsampleExcludes</code>, and SVGs whose largest image would be rendered in strips, are rendered at every density. If any stage
+ * fails the pipeline is stopped and
+ * the first failure is reported. A pipeline can only be run once.
+ * <p>
+ * If the mojo has a {@link RasterizeWorkerPool}, the parsing of the GVT tree, rendering and encoding are run on the pool's threads using
+ * the pool's transcoders, and the render and encode threads of the pipeline only coordinate the work. The threads of each stage still
+ * limit how many images of the module are in flight, while the pool limits how many images are rendered and encoded at once across every
+ * module of the build.
+ * 
+ * @author R King
+ * 
+ */
+final class RasterizePipeline {
+
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * The number of parsed SVGs held for each render thread, from which the largest is rendered next.
+	 */
+	private static final int PARSED_PER_RENDER_THREAD = 4;
+
+	/**
+	 * The number of rows in each strip of a tiled render, if <code>tileHeight</code> isn't set.
+	 */
+	private static final int DEFAULT_TILE_HEIGHT = 256;
+
+	/**
+	 * The encoder used for tiled renders when the transcoder doesn't have an encoder profile.
+	 */
+	private static final PNGEncoder DEFAULT_TILED_ENCODER = new PNGEncoder(9, true);
+
+	private static final RasterizeJob END_OF_JOBS = new RasterizeJob(null, null);
+	private static final ParsedSVG END_OF_PARSED = new ParsedSVG(null, null, 0, 0, null, -1);
+	private static final RenderedImage END_OF_RENDERED = new RenderedImage(null, null, null, 0, 0);
+	private static final EncodedImage END_OF_ENCODED = new EncodedImage(null, null, null);
+
+	private final RasterizeSVGMojo mojo;
+	private final RasterizeCache cache;
+	private final RasterizeWorkerPool pool;
+	private final int parseThreads;
+	private final int renderThreads;
+	private final int encodeThreads;
+	private final int writeThreads;
+	private final int maxRenderedImages;
+	private final long tiledRenderThreshold;
+	private final int tileHeight;
+	private final boolean downsample;
+	private final List<String> downsampleExcludes = new ArrayList<String>();
+	private final List<ImageTranscoder> transcoders = new ArrayList<ImageTranscoder>();
+
+	private final BlockingQueue<RasterizeJob> jobs = new LinkedBlockingQueue<RasterizeJob>();
+	private final BlockingQueue<ParsedSVG> parsed;
+	private final Semaphore parsedPermits;
+	private final BlockingQueue<RenderedImage> rendered;
+	private final BlockingQueue<EncodedImage> encoded;
+	private final Semaphore renderedPermits;
+	private final RasterizeScheduler scheduler;
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	/**
+	 * Creates a pipeline using the configuration of the mojo. Any thread count which isn't set defaults to one thread for the parse and
+	 * write stages, and to <code>parallelism</code> threads for the render and encode stages. If <code>maxRenderedImages</code> isn't set
+	 * it defaults to one image for each render and encode thread, and if <code>maxRenderMemory</code> isn't set the memory used by rendered
+	 * images isn't limited. Tiled rendering is only used for PNG images, and only if <code>tiledRenderThreshold</code> is set.
+	 * 
+	 * @param mojo
+	 * @param cache
+	 *            the rasterize cache, or null if the cache isn't used.
+	 * @throws MojoExecutionException
+	 *             if the transcoders could not be created.
+	 */
+	RasterizePipeline(final RasterizeSVGMojo mojo, final RasterizeCache cache) throws MojoExecutionException {
+		this.mojo = mojo;
+		this.cache = cache;
+		this.pool = mojo.workerPool;
+		int parallelism = Math.max(1, mojo.parallelism);
+		this.parseThreads = mojo.parseThreads > 0 ? mojo.parseThreads : 1;
+		this.renderThreads = mojo.renderThreads > 0 ? mojo.renderThreads : parallelism;
+		this.encodeThreads = mojo.encodeThreads > 0 ? mojo.encodeThreads : parallelism;
+		this.writeThreads = mojo.writeThreads > 0 ? mojo.writeThreads : 1;
+		this.maxRenderedImages = mojo.maxRenderedImages > 0 ? mojo.maxRenderedImages : this.renderThreads + this.encodeThreads;
+		this.tiledRenderThreshold = "png".equals(mojo.rasterizedType) ? mojo.tiledRenderThreshold : 0;
+		this.tileHeight = mojo.tileHeight > 0 ? mojo.tileHeight : DEFAULT_TILE_HEIGHT;
+		this.downsample = Constants.DENSITY_STRATEGY_DOWNSAMPLE.equals(mojo.densityStrategy);
+		if (mojo.downsampleExcludes != null) {
+			for (String exclude : mojo.downsampleExcludes) {
+				this.downsampleExcludes.add(exclude.replace('/', File.separatorChar).replace('\\', File.separatorChar));
+			}
+		}
+
+		// Each render and encode thread uses its own transcoder, unless the pool's transcoders are used, in which case a single transcoder
+		// is needed to generate the cache keys.
+		int transcoderCount = this.pool == null ? this.renderThreads + this.encodeThreads : 1;
+		for (int i = 0; i < transcoderCount; i++) {
+			try {
+				this.transcoders.add(mojo.getTranscoderFactory().create(mojo.rasterizedType, mojo.encoderProfile));
+			}
+			catch (TranscoderFactoryException e) {
+				throw new MojoExecutionException("Unable to create transcoder", e);
+			}
+		}
+		// The end marker is ordered after every parsed SVG, so isn't counted against the permits.
+		this.parsed = new PriorityBlockingQueue<ParsedSVG>(this.renderThreads * PARSED_PER_RENDER_THREAD + 1, new LargestFirst());
+		this.parsedPermits = new Semaphore(this.renderThreads * PARSED_PER_RENDER_THREAD);
+		this.rendered = new ArrayBlockingQueue<RenderedImage>(this.maxRenderedImages);
+		this.encoded = new ArrayBlockingQueue<EncodedImage>(Math.max(this.maxRenderedImages, this.writeThreads));
+		this.renderedPermits = new Semaphore(this.maxRenderedImages);
+		this.scheduler = new RasterizeScheduler(mojo.maxRenderMemory * 1024L * 1024L);
+	}
+
+	/**
+	 * Rasterizes each of the jobs at every density, returning once all the images have been written or the pipeline has failed.
+	 * 
+	 * @param jobsToRun
+	 * @throws MojoExecutionException
+	 * @throws MojoFailureException
+	 *             if any of the SVGs could not be rasterized.
+	 */
+	void run(final List<RasterizeJob> jobsToRun) throws MojoExecutionException, MojoFailureException {
+		this.mojo.getLog().debug(
+				"Rasterizing " + jobsToRun.size() + " SVGs using " + this.parseThreads + " parse, " + this.renderThreads + " render, " + this.encodeThreads
+						+ " encode and " + this.writeThreads + " write threads, holding at most " + this.maxRenderedImages + " rendered images in "
+						+ (this.mojo.maxRenderMemory > 0 ? this.mojo.maxRenderMemory + "MB" : "unlimited memory")
+						+ (this.pool != null ? ", rendering on the shared pool of " + this.pool.getThreads() + " threads" : ""));
+		this.jobs.addAll(jobsToRun);
+		this.jobs.add(END_OF_JOBS);
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.parseThreads + this.renderThreads + this.encodeThreads + this.writeThreads);
+		try {
+			AtomicInteger parseRunning = new AtomicInteger(this.parseThreads);
+			for (int i = 0; i < this.parseThreads; i++) {
+				executor.execute(new ParseWorker(parseRunning));
+			}
+			AtomicInteger renderRunning = new AtomicInteger(this.renderThreads);
+			for (int i = 0; i < this.renderThreads; i++) {
+				executor.execute(new RenderWorker(renderRunning, this.pool == null ? this.transcoders.get(i) : null));
+			}
+			AtomicInteger encodeRunning = new AtomicInteger(this.encodeThreads);
+			for (int i = 0; i < this.encodeThreads; i++) {
+				executor.execute(new EncodeWorker(encodeRunning, this.pool == null ? this.transcoders.get(this.renderThreads + i) : null));
+			}
+			AtomicInteger writeRunning = new AtomicInteger(this.writeThreads);
+			for (int i = 0; i < this.writeThreads; i++) {
+				executor.execute(new WriteWorker(writeRunning));
+			}
+			executor.shutdown();
+			while (!executor.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				// Wait for every stage to finish.
+			}
+		}
+		catch (InterruptedException e) {
+			fail(e);
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while rasterizing", e);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		Throwable cause = this.failure.get();
+		if (cause instanceof MojoFailureException) {
+			throw (MojoFailureException) cause;
+		}
+		if (cause instanceof MojoExecutionException) {
+			throw (MojoExecutionException) cause;
+		}
+		if (cause != null) {
+			throw new MojoExecutionException("Unexpected error while rasterizing", cause);
+		}
+		this.mojo.getLog().debug("Peak estimated memory of rendered images " + this.scheduler.getPeak() / (1024 * 1024) + "MB");
+	}
+
+	/**
+	 * Records the failure, if it is the first, which causes every stage to stop taking items.
+	 * 
+	 * @param cause
+	 */
+	void fail(final Throwable cause) {
+		this.failure.compareAndSet(null, cause);
+	}
+
+	/**
+	 * Takes the next item from the queue, waiting until one is available.
+	 * 
+	 * @param queue
+	 * @return the next item, or null if the pipeline has failed.
+	 * @throws InterruptedException
+	 */
+	<T> T take(final BlockingQueue<T> queue) throws InterruptedException {
+		T item = null;
+		while (item == null && this.failure.get() == null) {
+			item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		return item;
+	}
+
+	/**
+	 * Puts the item on the queue, waiting for space to become available.
+	 * 
+	 * @param queue
+	 * @param item
+	 * @return false if the pipeline failed before the item could be queued.
+	 * @throws InterruptedException
+	 */
+	<T> boolean put(final BlockingQueue<T> queue, final T item) throws InterruptedException {
+		while (this.failure.get() == null) {
+			if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Waits for a permit from the semaphore.
+	 * 
+	 * @param permits
+	 * @return false if the pipeline failed while waiting.
+	 * @throws InterruptedException
+	 */
+	boolean acquire(final Semaphore permits) throws InterruptedException {
+		while (this.failure.get() == null) {
+			if (permits.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Waits for the scheduler to admit an image of the given size.
+	 * 
+	 * @param bytes
+	 * @return false if the pipeline failed while waiting.
+	 * @throws InterruptedException
+	 */
+	boolean admit(final long bytes) throws InterruptedException {
+		while (this.failure.get() == null) {
+			if (this.scheduler.tryAdmit(bytes, POLL_MILLIS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the task on the worker pool if there is one, otherwise on the calling thread.
+	 * 
+	 * @param task
+	 * @return the result of the task.
+	 * @throws Exception
+	 *             the exception thrown by the task.
+	 */
+	<T> T runOnPool(final Callable<T> task) throws Exception {
+		if (this.pool == null) {
+			return task.call();
+		}
+		try {
+			return this.pool.execute(task);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @param transcoder
+	 *            the transcoder of the worker, null if the worker pool is used.
+	 * @return the transcoder of the worker, or when called by a task running on the worker pool the pool thread's transcoder.
+	 * @throws MojoExecutionException
+	 *             if the pool thread's transcoder could not be created.
+	 */
+	ImageTranscoder getTranscoder(final ImageTranscoder transcoder) throws MojoExecutionException {
+		if (transcoder != null) {
+			return transcoder;
+		}
+		try {
+			return this.pool.getTranscoder(this.mojo.getTranscoderFactory(), this.mojo.rasterizedType, this.mojo.encoderProfile);
+		}
+		catch (TranscoderFactoryException e) {
+			throw new MojoExecutionException("Unable to create transcoder", e);
+		}
+	}
+
+	/**
+	 * Copies any images of the job which are already in the cache to the target directory. If the job is downsampled and any image has to
+	 * be rendered, the largest density is always rendered too, so the other densities are downsampled from the same image as their cache
+	 * keys describe.
+	 * 
+	 * @param job
+	 * @return the images which still have to be rendered.
+	 * @throws IOException
+	 *             if the SVG could not be read.
+	 */
+	List<RasterizeOutput> getOutputsToRender(final RasterizeJob job) throws IOException {
+		String checksum = this.cache == null ? null : Checksums.sha1(job.svg);
+		String densityStrategy = getDensityStrategy(job);
+		Density largest = this.mojo.getLargestDensity();
+		RasterizeOutput fetchedLargest = null;
+		List<RasterizeOutput> outputs = new ArrayList<RasterizeOutput>();
+		for (Density density : this.mojo.densities) {
+			File outputFile = new File(new File(this.mojo.targetDir, density.getName()), job.name + "." + this.mojo.rasterizedType);
+			String cacheKey = null;
+			if (checksum != null) {
+				// Every transcoder has the same hints, so any of them can be used to generate the key.
+				cacheKey = this.mojo.getCacheKey(checksum, density, this.transcoders.get(0), densityStrategy);
+				if (this.cache.fetch(cacheKey, this.mojo.rasterizedType, outputFile)) {
+					this.mojo.getLog().debug("Fetched " + density.getName() + "/" + outputFile.getName() + " from the cache");
+					if (density == largest) {
+						fetchedLargest = new RasterizeOutput(density, outputFile, cacheKey);
+					}
+					continue;
+				}
+			}
+			outputs.add(new RasterizeOutput(density, outputFile, cacheKey));
+		}
+		if (fetchedLargest != null && !outputs.isEmpty() && Constants.DENSITY_STRATEGY_DOWNSAMPLE.equals(densityStrategy)) {
+			outputs.add(fetchedLargest);
+		}
+		return outputs;
+	}
+
+	/**
+	 * @param job
+	 * @return the density strategy used for the job, <code>render</code> if the SVG matches any of the downsample excludes.
+	 */
+	String getDensityStrategy(final RasterizeJob job) {
+		if (!this.downsample) {
+			return Constants.DENSITY_STRATEGY_RENDER;
+		}
+		String svgPath = job.svg.getAbsolutePath();
+		String svgDirectoryPath = this.mojo.svgDirectory.getAbsolutePath();
+		String relativePath = svgPath.startsWith(svgDirectoryPath) ? svgPath.substring(svgDirectoryPath.length() + 1) : job.svg.getName();
+		for (String exclude : this.downsampleExcludes) {
+			if (SelectorUtils.matchPath(exclude, relativePath)) {
+				return Constants.DENSITY_STRATEGY_RENDER;
+			}
+		}
+		return Constants.DENSITY_STRATEGY_DOWNSAMPLE;
+	}
+
+	/**
+	 * Stores the output in the rasterize cache, if it is used. Failing to store the output only logs a warning.
+	 * 
+	 * @param output
+	 */
+	void storeInCache(final RasterizeOutput output) {
+		if (output.cacheKey != null) {
+			try {
+				this.cache.store(output.cacheKey, this.mojo.rasterizedType, output.file);
+			}
+			catch (IOException e) {
+				this.mojo.getLog().warn("Unable to store " + output.file + " in the cache", e);
+			}
+		}
+	}
+
+	/**
+	 * A SVG to be rasterized at every density, and the name of the images it is rasterized to, along with the names of any identical SVGs
+	 * whose images are copied from this job's once it has run. Once the pipeline has run, the job records whether the SVG was converted to
+	 * a VectorDrawable instead.
+	 */
+	static final class RasterizeJob {
+
+		final File svg;
+		final String name;
+		final List<String> duplicates = new ArrayList<String>();
+		volatile boolean vectorDrawable;
+
+		RasterizeJob(final File svg, final String name) {
+			this.svg = svg;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * An image to be rendered, the file it is written to, and its key in the rasterize cache if the cache is used.
+	 */
+	static final class RasterizeOutput {
+
+		final Density density;
+		final File file;
+		final String cacheKey;
+
+		RasterizeOutput(final Density density, final File file, final String cacheKey) {
+			this.density = density;
+			this.file = file;
+			this.cacheKey = cacheKey;
+		}
+	}
+
+	/**
+	 * A parsed SVG, passed from the parse stage to the render stage, along with the estimated memory needed to render all of its images.
+	 */
+	static final class ParsedSVG {
+
+		final RasterizeJob job;
+		final Document document;
+		final float width;
+		final float height;
+		final List<RasterizeOutput> outputs;
+		final long footprint;
+
+		ParsedSVG(final RasterizeJob job, final Document document, final float width, final float height, final List<RasterizeOutput> outputs,
+				final long footprint) {
+			this.job = job;
+			this.document = document;
+			this.width = width;
+			this.height = height;
+			this.outputs = outputs;
+			this.footprint = footprint;
+		}
+	}
+
+	/**
+	 * Orders parsed SVGs from the largest footprint to the smallest.
+	 */
+	static final class LargestFirst implements Comparator<ParsedSVG> {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+		 */
+		public int compare(final ParsedSVG o1, final ParsedSVG o2) {
+			return o1.footprint > o2.footprint ? -1 : (o1.footprint == o2.footprint ? 0 : 1);
+		}
+	}
+
+	/**
+	 * A rendered image which may be used by several outputs, along with the memory admitted for it by the scheduler. The memory is released
+	 * once every output has released the image.
+	 */
+	static final class SharedImage {
+
+		final BufferedImage image;
+		final long bytes;
+		private final AtomicInteger references;
+
+		SharedImage(final BufferedImage image, final long bytes, final int references) {
+			this.image = image;
+			this.bytes = bytes;
+			this.references = new AtomicInteger(references);
+		}
+
+		/**
+		 * @return true if this was the last reference to the image.
+		 */
+		boolean release() {
+			return this.references.decrementAndGet() == 0;
+		}
+	}
+
+	/**
+	 * A rendered image, passed from the render stage to the encode stage, along with the size of the output. If the output is smaller than
+	 * the image, the image is downsampled to the size of the output before it is encoded.
+	 */
+	static final class RenderedImage {
+
+		final RasterizeJob job;
+		final RasterizeOutput output;
+		final SharedImage source;
+		final int width;
+		final int height;
+
+		RenderedImage(final RasterizeJob job, final RasterizeOutput output, final SharedImage source, final int width, final int height) {
+			this.job = job;
+			this.output = output;
+			this.source = source;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	/**
+	 * An encoded image, passed from the encode stage to the write stage.
+	 */
+	static final class EncodedImage {
+
+		final RasterizeJob job;
+		final RasterizeOutput output;
+		final byte[] bytes;
+
+		EncodedImage(final RasterizeJob job, final RasterizeOutput output, final byte[] bytes) {
+			this.job = job;
+			this.output = output;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Base class for the threads of a stage. Each thread takes items from the input queue until it receives the end marker, which it puts
+	 * back for the other threads of the stage. The last thread of the stage to finish passes the end marker on to the next stage.
+	 */
+	abstract class StageWorker<I> implements Runnable {
+
+		private final BlockingQueue<I> input;
+		private final I end;
+		private final AtomicInteger running;
+
+		StageWorker(final BlockingQueue<I> input, final I end, final AtomicInteger running) {
+			this.input = input;
+			this.end = end;
+			this.running = running;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+			try {
+				I item;
+				while ((item = take(this.input)) != null && item != this.end) {
+					process(item);
+				}
+				if (item == this.end && put(this.input, this.end) && this.running.decrementAndGet() == 0) {
+					finish();
+				}
+			}
+			catch (Throwable t) {
+				fail(t);
+			}
+		}
+
+		/**
+		 * Processes a single item taken from the input queue.
+		 * 
+		 * @param item
+		 * @throws Exception
+		 */
+		abstract void process(I item) throws Exception;
+
+		/**
+		 * Called by the last thread of the stage once every item has been processed.
+		 * 
+		 * @throws InterruptedException
+		 */
+		abstract void finish() throws InterruptedException;
+	}
+
+	/**
+	 * Converts each job to a VectorDrawable if possible, otherwise copies any cached images of the job, and parses the SVG if any images
+	 * remain to be rendered.
+	 */
+	final class ParseWorker extends StageWorker<RasterizeJob> {
+
+		private final SAXSVGDocumentFactory svgDocFactory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+		private final VectorDrawableConverter converter = new VectorDrawableConverter();
+
+		ParseWorker(final AtomicInteger running) {
+			super(RasterizePipeline.this.jobs, END_OF_JOBS, running);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.RasterizePipeline.StageWorker#process(java.lang.Object)
+		 */
+		void process(final RasterizeJob job) throws MojoFailureException, InterruptedException {
+			try {
+				Document svgDoc = null;
+				if (RasterizePipeline.this.mojo.vectorDrawables) {
+					svgDoc = this.svgDocFactory.createDocument(job.svg.toURI().toString());
+					if (convert(job, svgDoc)) {
+						return;
+					}
+				}
+				List<RasterizeOutput> outputs = getOutputsToRender(job);
+				if (outputs.isEmpty()) {
+					return;
+				}
+				if (!acquire(RasterizePipeline.this.parsedPermits)) {
+					return;
+				}
+				if (svgDoc == null) {
+					svgDoc = this.svgDocFactory.createDocument(job.svg.toURI().toString());
+				}
+				SVGSVGElement svgDocElement = (SVGSVGElement) svgDoc.getDocumentElement();
+				float width = svgDocElement.getWidth().getBaseVal().getValue();
+				float height = svgDocElement.getHeight().getBaseVal().getValue();
+				long footprint = 0;
+				for (RasterizeOutput output : outputs) {
+					footprint += RasterizeScheduler.estimateBytes(width, height, output.density);
+				}
+				put(RasterizePipeline.this.parsed, new ParsedSVG(job, svgDoc, width, height, outputs, footprint));
+			}
+			catch (IOException e) {
+				throw new MojoFailureException("Unable to rasterize " + job.svg.getAbsolutePath(), e);
+			}
+		}
+
+		/**
+		 * Converts the SVG to a VectorDrawable and writes it to the drawable directory, logging why if the SVG can't be converted.
+		 * 
+		 * @param job
+		 * @param svgDoc
+		 * @return true if the SVG was converted, false if it must be rasterized.
+		 * @throws IOException
+		 *             if the VectorDrawable could not be written.
+		 */
+		private boolean convert(final RasterizeJob job, final Document svgDoc) throws IOException {
+			String vectorDrawable;
+			try {
+				vectorDrawable = this.converter.convert(svgDoc);
+			}
+			catch (UnsupportedSVGException e) {
+				RasterizePipeline.this.mojo.getLog().info("Rasterizing " + job.svg + ", it can't be converted to a VectorDrawable: " + e.getMessage());
+				return false;
+			}
+			String output = Constants.VECTOR_DRAWABLE_DIR + "/" + job.name + ".xml";
+			FileUtils.fileWrite(new File(RasterizePipeline.this.mojo.targetDir, output), "UTF-8", vectorDrawable);
+			RasterizePipeline.this.mojo.getLog().info("Converted " + job.svg + " to the VectorDrawable " + output);
+			job.vectorDrawable = true;
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.RasterizePipeline.StageWorker#finish()
+		 */
+		void finish() throws InterruptedException {
+			put(RasterizePipeline.this.parsed, END_OF_PARSED);
+		}
+	}
+
+	/**
+	 * Builds the GVT tree of each parsed SVG and paints it at each density, the tree is released once every density has been painted.
+	 */
+	final class RenderWorker extends StageWorker<ParsedSVG> {
+
+		/**
+		 * The worker's own transcoder, null if the worker pool's transcoders are used.
+		 */
+		private final ImageTranscoder transcoder;
+		private final UserAgent userAgent = new UserAgentAdapter();
+
+		RenderWorker(final AtomicInteger running, final ImageTranscoder transcoder) {
+			super(RasterizePipeline.this.parsed, END_OF_PARSED, running);
+			this.transcoder = transcoder;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.RasterizePipeline.StageWorker#process(java.lang.Object)
+		 */
+		void process(final ParsedSVG parsedSVG) throws Exception {
+			RasterizePipeline.this.parsedPermits.release();
+			final SVGRenderer renderer;
+			try {
+				renderer = runOnPool(new Callable<SVGRenderer>() {
+					public SVGRenderer call() throws TranscoderException {
+						return new SVGRenderer(RenderWorker.this.userAgent, parsedSVG.document);
+					}
+				});
+			}
+			catch (TranscoderException e) {
+				throw new MojoFailureException("Unable to rasterize " + parsedSVG.job.svg.getAbsolutePath(), e);
+			}
+			try {
+				if (parsedSVG.outputs.size() > 1 && Constants.DENSITY_STRATEGY_DOWNSAMPLE.equals(getDensityStrategy(parsedSVG.job))) {
+					RasterizeOutput largest = parsedSVG.outputs.get(0);
+					for (RasterizeOutput output : parsedSVG.outputs) {
+						if (output.density.getScaleFactor() > largest.density.getScaleFactor()) {
+							largest = output;
+						}
+					}
+					float width = (float) Math.ceil(largest.density.getScaleFactor() * parsedSVG.width);
+					long pixels = (long) (int) (width + 0.5f) * renderer.getImageHeight(width);
+					if (RasterizePipeline.this.tiledRenderThreshold <= 0 || pixels <= RasterizePipeline.this.tiledRenderThreshold) {
+						renderDownsampled(renderer, parsedSVG, largest, width);
+						return;
+					}
+					RasterizePipeline.this.mojo.getLog().debug("Rendering " + parsedSVG.job.svg + " at every density, it is too large to downsample");
+				}
+				for (RasterizeOutput output : parsedSVG.outputs) {
+					final float width = (float) Math.ceil(output.density.getScaleFactor() * parsedSVG.width);
+					long pixels = (long) (int) (width + 0.5f) * renderer.getImageHeight(width);
+					if (RasterizePipeline.this.tiledRenderThreshold > 0 && pixels > RasterizePipeline.this.tiledRenderThreshold) {
+						if (!renderTiled(renderer, parsedSVG.job, output, width)) {
+							return;
+						}
+						continue;
+					}
+					long bytes = RasterizeScheduler.estimateBytes(parsedSVG.width, parsedSVG.height, output.density);
+					if (!acquire(RasterizePipeline.this.renderedPermits)) {
+						return;
+					}
+					if (!admit(bytes)) {
+						return;
+					}
+					RasterizePipeline.this.mojo.getLog().debug(
+							"Rasterizing " + parsedSVG.job.svg + " -> " + output.density.getName() + "/" + output.file.getName() + " ["
+									+ output.density.getScaleFactor() + "]");
+					BufferedImage image = runOnPool(new Callable<BufferedImage>() {
+						public BufferedImage call() throws MojoExecutionException {
+							return renderer.render(getTranscoder(RenderWorker.this.transcoder), width);
+						}
+					});
+					put(RasterizePipeline.this.rendered, new RenderedImage(parsedSVG.job, output, new SharedImage(image, bytes, 1), image.getWidth(),
+							image.getHeight()));
+				}
+			}
+			finally {
+				renderer.dispose();
+			}
+		}
+
+		/**
+		 * Renders the largest output, and passes the image to the encode stage for every output to be downsampled to its size.
+		 * 
+		 * @param renderer
+		 * @param parsedSVG
+		 * @param largest
+		 * @param width
+		 *            the width of the largest output.
+		 * @throws Exception
+		 *             if the image could not be rendered.
+		 */
+		private void renderDownsampled(final SVGRenderer renderer, final ParsedSVG parsedSVG, final RasterizeOutput largest, final float width)
+				throws Exception {
+			long bytes = RasterizeScheduler.estimateBytes(parsedSVG.width, parsedSVG.height, largest.density);
+			if (!admit(bytes)) {
+				return;
+			}
+			RasterizePipeline.this.mojo.getLog().debug(
+					"Rasterizing " + parsedSVG.job.svg + " -> " + largest.density.getName() + "/" + largest.file.getName() + " ["
+							+ largest.density.getScaleFactor() + "], downsampling it for the other densities");
+			SharedImage image;
+			try {
+				image = new SharedImage(runOnPool(new Callable<BufferedImage>() {
+					public BufferedImage call() throws MojoExecutionException {
+						return renderer.render(getTranscoder(RenderWorker.this.transcoder), width);
+					}
+				}), bytes, parsedSVG.outputs.size());
+			}
+			catch (Exception e) {
+				RasterizePipeline.this.scheduler.release(bytes);
+				throw e;
+			}
+			for (RasterizeOutput output : parsedSVG.outputs) {
+				float outputWidth = (float) Math.ceil(output.density.getScaleFactor() * parsedSVG.width);
+				if (!acquire(RasterizePipeline.this.renderedPermits)) {
+					return;
+				}
+				put(RasterizePipeline.this.rendered, new RenderedImage(parsedSVG.job, output, image, (int) (outputWidth + 0.5f), renderer
+						.getImageHeight(outputWidth)));
+			}
+		}
+
+		/**
+		 * Renders the output a strip at a time, streaming each strip into the PNG encoder and straight to the output file. The scheduler
+		 * admits a single strip rather than the whole image.
+		 * 
+		 * @param renderer
+		 * @param job
+		 * @param output
+		 * @param width
+		 * @return false if the pipeline failed while waiting to be admitted.
+		 * @throws MojoFailureException
+		 *             if the image could not be encoded or written.
+		 * @throws Exception
+		 */
+		private boolean renderTiled(final SVGRenderer renderer, final RasterizeJob job, final RasterizeOutput output, final float width)
+				throws Exception {
+			long bytes = (long) (int) (width + 0.5f) * RasterizePipeline.this.tileHeight * RasterizeScheduler.BYTES_PER_PIXEL;
+			if (!admit(bytes)) {
+				return false;
+			}
+			try {
+				RasterizePipeline.this.mojo.getLog().debug(
+						"Rasterizing " + job.svg + " -> " + output.density.getName() + "/" + output.file.getName() + " [" + output.density.getScaleFactor()
+								+ "] in strips of " + RasterizePipeline.this.tileHeight + " rows");
+				runOnPool(new Callable<Void>() {
+					public Void call() throws IOException, MojoExecutionException {
+						ImageTranscoder transcoder = getTranscoder(RenderWorker.this.transcoder);
+						PNGEncoder encoder = transcoder instanceof ProfiledPNGTranscoder ? ((ProfiledPNGTranscoder) transcoder).getEncoder()
+								: DEFAULT_TILED_ENCODER;
+						OutputStream os = new FileOutputStream(output.file);
+						try {
+							renderer.render(transcoder, width, RasterizePipeline.this.tileHeight, encoder, os);
+						}
+						finally {
+							os.close();
+						}
+						return null;
+					}
+				});
+			}
+			catch (IOException e) {
+				throw new MojoFailureException("Unable to rasterize " + job.svg.getAbsolutePath(), e);
+			}
+			finally {
+				RasterizePipeline.this.scheduler.release(bytes);
+			}
+			storeInCache(output);
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.RasterizePipeline.StageWorker#finish()
+		 */
+		void finish() throws InterruptedException {
+			put(RasterizePipeline.this.rendered, END_OF_RENDERED);
+		}
+	}
+
+	/**
+	 * Encodes each rendered image, downsampling it first if required, releasing the image once it has been encoded.
+	 */
+	final class EncodeWorker extends StageWorker<RenderedImage> {
+
+		/**
+		 * The worker's own transcoder, null if the worker pool's transcoders are used.
+		 */
+		private final ImageTranscoder transcoder;
+
+		EncodeWorker(final AtomicInteger running, final ImageTranscoder transcoder) {
+			super(RasterizePipeline.this.rendered, END_OF_RENDERED, running);
+			this.transcoder = transcoder;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.RasterizePipeline.StageWorker#process(java.lang.Object)
+		 */
+		void process(final RenderedImage renderedImage) throws Exception {
+			final ByteArrayOutputStream os = new ByteArrayOutputStream();
+			try {
+				runOnPool(new Callable<Void>() {
+					public Void call() throws TranscoderException, MojoExecutionException {
+						BufferedImage image = renderedImage.source.image;
+						if (renderedImage.width != image.getWidth() || renderedImage.height != image.getHeight()) {
+							image = ImageDownsampler.downsample(image, renderedImage.width, renderedImage.height);
+						}
+						getTranscoder(EncodeWorker.this.transcoder).writeImage(image, new TranscoderOutput(os));
+						return null;
+					}
+				});
+			}
+			catch (TranscoderException e) {
+				throw new MojoFailureException("Unable to rasterize " + renderedImage.job.svg.getAbsolutePath(), e);
+			}
+			finally {
+				if (renderedImage.source.release()) {
+					RasterizePipeline.this.scheduler.release(renderedImage.source.bytes);
+				}
+				RasterizePipeline.this.renderedPermits.release();
+			}
+			put(RasterizePipeline.this.encoded, new EncodedImage(renderedImage.job, renderedImage.output, os.toByteArray()));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.RasterizePipeline.StageWorker#finish()
+		 */
+		void finish() throws InterruptedException {
+			put(RasterizePipeline.this.encoded, END_OF_ENCODED);
+		}
+	}
+
+	/**
+	 * Writes each encoded image to its output file, and stores it in the rasterize cache.
+	 */
+	final class WriteWorker extends StageWorker<EncodedImage> {
+
+		WriteWorker(final AtomicInteger running) {
+			super(RasterizePipeline.this.encoded, END_OF_ENCODED, running);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.RasterizePipeline.StageWorker#process(java.lang.Object)
+		 */
+		void process(final EncodedImage encodedImage) throws MojoFailureException {
+			File outputFile = encodedImage.output.file;
+			try {
+				OutputStream os = new FileOutputStream(outputFile);
+				try {
+					os.write(encodedImage.bytes);
+				}
+				finally {
+					os.close();
+				}
+			}
+			catch (IOException e) {
+				throw new MojoFailureException("Unable to rasterize " + encodedImage.job.svg.getAbsolutePath(), e);
+			}
+			storeInCache(encodedImage.output);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see com.github.kingamajick.admp.maven.RasterizePipeline.StageWorker#finish()
+		 */
+		void finish() {
+			// The write stage is the last stage.
+		}
+	}
+
+}
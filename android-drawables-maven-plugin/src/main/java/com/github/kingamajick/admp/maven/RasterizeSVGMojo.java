@@ -16,35 +16,33 @@
 package com.github.kingamajick.admp.maven;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
-import org.apache.batik.bridge.BridgeContext;
-import org.apache.batik.bridge.DocumentLoader;
-import org.apache.batik.bridge.UserAgent;
-import org.apache.batik.bridge.UserAgentAdapter;
-import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
-import org.apache.batik.transcoder.TranscoderException;
-import org.apache.batik.transcoder.TranscoderInput;
-import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.Version;
 import org.apache.batik.transcoder.image.ImageTranscoder;
-import org.apache.batik.util.XMLResourceDescriptor;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.w3c.dom.Document;
-import org.w3c.dom.svg.SVGSVGElement;
+import org.codehaus.plexus.util.FileUtils;
 
+import com.github.kingamajick.admp.maven.RasterizePipeline.RasterizeJob;
 import com.github.kingamajick.admp.maven.beans.Density;
 import com.github.kingamajick.admp.maven.transcoder.TranscoderFactory;
-import com.github.kingamajick.admp.maven.transcoder.TranscoderFactoryException;
 import com.github.kingamajick.admp.maven.util.Asserts;
+import com.github.kingamajick.admp.maven.util.Checksums;
 import com.github.kingamajick.admp.maven.util.Constants;
+import com.github.kingamajick.admp.maven.util.RasterizeCache;
+import com.github.kingamajick.admp.maven.util.RasterizeManifest;
+import com.github.kingamajick.admp.maven.util.SourceFile;
+import com.github.kingamajick.admp.maven.util.SourceScanner;
 
 /**
  * Rasterizes any SVGs contained <code>${svgDirectory}</code> (default: <code>'src/main/svg'</code>) to
@@ -61,14 +59,19 @@ import com.github.kingamajick.admp.maven.util.Constants;
  * @author R King
  * 
  * @goal rasterize
+ * @threadSafe
  */
 public class RasterizeSVGMojo extends AbstractMojo {
 
-	private UserAgent userAgent;
-	private DocumentLoader loader;
-	private BridgeContext context;
-	private SAXSVGDocumentFactory svgDocFactory;
-	private TranscoderFactory transcoderFactory;
+	TranscoderFactory transcoderFactory;
+
+	/**
+	 * The pool of rasterization threads shared by every module of the build.
+	 * 
+	 * @component role="com.github.kingamajick.admp.maven.RasterizeWorkerPool"
+	 * @readonly
+	 */
+	RasterizeWorkerPool workerPool;
 
 	/**
 	 * The directory containing the SVG resource to be rasterized.
@@ -77,6 +80,21 @@ public class RasterizeSVGMojo extends AbstractMojo {
 	 */
 	File svgDirectory;
 
+	/**
+	 * Patterns, relative to <code>${svgDirectory}</code>, of the SVGs to rasterize, for example <code>icons/**</code>. If not set every SVG
+	 * is rasterized.
+	 * 
+	 * @parameter
+	 */
+	List<String> includes;
+
+	/**
+	 * Patterns, relative to <code>${svgDirectory}</code>, of the SVGs not to rasterize, for example <code>**&#47;*_draft.svg</code>.
+	 * 
+	 * @parameter
+	 */
+	List<String> excludes;
+
 	/**
 	 * @parameter expression="${project.build.outputDirectory}/res"
 	 * @readonly
@@ -103,6 +121,164 @@ public class RasterizeSVGMojo extends AbstractMojo {
 	 */
 	String rasterizedType;
 
+	/**
+	 * The profile used to encode <code>png</code> images:
+	 * <ul>
+	 * <li>default : Batik's own encoder.</li>
+	 * <li>fast : low deflate level and no row filtering, for quick local builds.</li>
+	 * <li>release : lossless palette and bit depth reduction, metadata stripped, and the smallest of several compression strategies tried in
+	 * parallel.</li>
+	 * </ul>
+	 * 
+	 * @parameter expression="${encoderProfile}" default-value = "default"
+	 */
+	String encoderProfile;
+
+	/**
+	 * The default number of threads used by the render and encode stages. SVGs are rasterized by a pipeline of parse, render, encode and
+	 * write stages, each with its own threads, so that rendering and disk I/O overlap. The output is identical to rasterizing with a single
+	 * thread.
+	 * 
+	 * @parameter expression="${parallelism}" default-value = "1"
+	 */
+	int parallelism;
+
+	/**
+	 * The number of threads used to parse SVGs.
+	 * 
+	 * @parameter expression="${parseThreads}" default-value = "1"
+	 */
+	int parseThreads;
+
+	/**
+	 * The number of threads used to render SVGs, if 0 <code>${parallelism}</code> threads are used.
+	 * 
+	 * @parameter expression="${renderThreads}" default-value = "0"
+	 */
+	int renderThreads;
+
+	/**
+	 * The number of threads used to encode rendered images, if 0 <code>${parallelism}</code> threads are used.
+	 * 
+	 * @parameter expression="${encodeThreads}" default-value = "0"
+	 */
+	int encodeThreads;
+
+	/**
+	 * The number of threads used to write encoded images.
+	 * 
+	 * @parameter expression="${writeThreads}" default-value = "1"
+	 */
+	int writeThreads;
+
+	/**
+	 * The maximum number of rendered images held in memory waiting to be encoded, once reached rendering pauses until an image has been
+	 * encoded. If 0, one image is allowed for each render and encode thread.
+	 * 
+	 * @parameter expression="${maxRenderedImages}" default-value = "0"
+	 */
+	int maxRenderedImages;
+
+	/**
+	 * The maximum memory in megabytes used by rendered images waiting to be encoded. The memory of each image is estimated from the width and
+	 * height of the SVG and the scale factor of the density, and an image is only rendered while the images already in memory leave room
+	 * for it. SVGs are rendered largest first, and an image larger than this limit is rendered once no other images are in memory. If 0,
+	 * the memory used isn't limited.
+	 * 
+	 * @parameter expression="${maxRenderMemory}" default-value = "256"
+	 */
+	int maxRenderMemory;
+
+	/**
+	 * PNG images with more pixels than this are rendered in strips of <code>${tileHeight}</code> rows, with each strip encoded as soon as it
+	 * has been painted, so only a single strip of the image is held in memory. Images rendered in strips are always stored as truecolor. If
+	 * 0, images are never rendered in strips.
+	 * 
+	 * @parameter expression="${tiledRenderThreshold}" default-value = "4194304"
+	 */
+	int tiledRenderThreshold;
+
+	/**
+	 * The number of rows in each strip of an image rendered in strips.
+	 * 
+	 * @parameter expression="${tileHeight}" default-value = "256"
+	 */
+	int tileHeight;
+
+	/**
+	 * How each density is produced:
+	 * <ul>
+	 * <li>render : each density is rendered from the SVG.</li>
+	 * <li>downsample : the largest density is rendered from the SVG, and the other densities are downsampled from it by area averaging in
+	 * parallel. This is much faster, at the cost of a small loss in quality for the smaller densities.</li>
+	 * </ul>
+	 * 
+	 * @parameter expression="${densityStrategy}" default-value = "render"
+	 */
+	String densityStrategy;
+
+	/**
+	 * Patterns, relative to <code>${svgDirectory}</code>, of SVGs which are rendered at every density when the <code>downsample</code>
+	 * density strategy is used, i.e. SVGs which need to be hinted at each size. For example <code>icon/*.svg</code>.
+	 * 
+	 * @parameter
+	 */
+	List<String> downsampleExcludes;
+
+	/**
+	 * If true, SVGs which only use the subset of SVG that a VectorDrawable can represent (paths, basic shapes, groups, transforms and solid
+	 * fills and strokes) are converted to VectorDrawable XML in <code>${targetDir}/drawable</code> rather than rasterized. Every other SVG
+	 * is rasterized as usual, and the build log reports which SVGs were converted and why the others could not be.
+	 * 
+	 * @parameter expression="${vectorDrawables}" default-value = "false"
+	 */
+	boolean vectorDrawables;
+
+	/**
+	 * If true, a manifest of the SVGs rasterized is kept between builds and any SVG which is unchanged since the last build, and whose
+	 * outputs are still present, is not rasterized again. Outputs of SVGs which have been removed are deleted.
+	 * 
+	 * @parameter expression="${incremental}" default-value = "true"
+	 */
+	boolean incremental;
+
+	/**
+	 * The location of the manifest used for incremental rasterization.
+	 * 
+	 * @parameter expression="${manifestFile}" default-value = "${project.build.directory}/android-drawables-maven-plugin/rasterize.properties"
+	 */
+	File manifestFile;
+
+	/**
+	 * If true, rasterized images are stored in a persistent cache which can be shared by every project on the machine. Images whose SVG,
+	 * scale factor, type, transcoder settings and Batik and plugin versions match a cached entry are copied from the cache rather than
+	 * rasterized.
+	 * 
+	 * @parameter expression="${useCache}" default-value = "false"
+	 */
+	boolean useCache;
+
+	/**
+	 * The location of the rasterize cache.
+	 * 
+	 * @parameter expression="${cacheDirectory}" default-value = "${settings.localRepository}/.cache/android-drawables-maven-plugin"
+	 */
+	File cacheDirectory;
+
+	/**
+	 * The maximum size of the rasterize cache in megabytes, once exceeded the least recently used entries are removed at the end of the
+	 * build.
+	 * 
+	 * @parameter expression="${cacheMaxSize}" default-value = "512"
+	 */
+	int cacheMaxSize;
+
+	/**
+	 * @parameter default-value="${plugin.version}"
+	 * @readonly
+	 */
+	String pluginVersion;
+
 	/**
 	 * Create a directory with the specified name, and all the necessary parent directories to do that.
 	 * 
@@ -123,15 +299,6 @@ public class RasterizeSVGMojo extends AbstractMojo {
 		return dir;
 	}
 
-	public RasterizeSVGMojo() {
-		this.userAgent = new UserAgentAdapter();
-		this.loader = new DocumentLoader(this.userAgent);
-		this.context = new BridgeContext(this.userAgent, this.loader);
-		this.context.setDynamicState(BridgeContext.DYNAMIC);
-		this.svgDocFactory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
-		this.transcoderFactory = new TranscoderFactory();
-	}
-
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -141,89 +308,325 @@ public class RasterizeSVGMojo extends AbstractMojo {
 		if (this.densities.size() == 0) {
 			Density.defaults(this.densities);
 		}
-		ImageTranscoder transcoder = null;
-		try {
-			transcoder = this.transcoderFactory.create(this.rasterizedType);
+		if (this.densityStrategy != null && !Constants.DENSITY_STRATEGIES.contains(this.densityStrategy)) {
+			throw new MojoExecutionException("Unknown density strategy " + this.densityStrategy + ", expected one of " + Constants.DENSITY_STRATEGIES);
 		}
-		catch (TranscoderFactoryException e) {
-			throw new MojoExecutionException("Unable to create transcoder", e);
+		Map<String, SourceFile> svgsToProcess = getSVGsToProcess(this.svgDirectory);
+		if (svgsToProcess.isEmpty() && !(this.incremental && this.manifestFile.exists())) {
+			getLog().info("No SVGs to rasterize in " + this.svgDirectory);
+			return;
 		}
-		Map<String, File> svgsToProcess = getSVGsToProcess(this.svgDirectory);
-		for (Entry<String, File> svgToProcess : svgsToProcess.entrySet()) {
+		RasterizeCache rasterizeCache = this.useCache ? new RasterizeCache(this.cacheDirectory, this.cacheMaxSize * 1024L * 1024L) : null;
+		// Created once the first SVG which needs to be rasterized has been found.
+		RasterizePipeline pipeline = null;
+		RasterizeManifest previousManifest = new RasterizeManifest();
+		if (this.incremental) {
+			previousManifest = RasterizeManifest.load(this.manifestFile);
+			// Remove the manifest until this run completes, so a failed run can't leave a manifest describing partially written outputs.
+			if (this.manifestFile.exists() && !this.manifestFile.delete()) {
+				throw new MojoExecutionException("Unable to delete manifest " + this.manifestFile.getAbsolutePath());
+			}
+		}
+		RasterizeManifest manifest = new RasterizeManifest();
+		manifest.setSettings(getSettings());
+		boolean sameSettings = manifest.getSettings().equals(previousManifest.getSettings());
+
+		for (Density density : this.densities) {
+			createDirectory(this.targetDir, density.getName());
+		}
+		if (this.vectorDrawables) {
+			createDirectory(this.targetDir, Constants.VECTOR_DRAWABLE_DIR);
+		}
+		List<RasterizeJob> jobs = new ArrayList<RasterizeJob>();
+		Map<String, RasterizeJob> uniqueJobs = new HashMap<String, RasterizeJob>();
+		List<String> outputs = new ArrayList<String>();
+		int upToDate = 0;
+		for (Entry<String, SourceFile> svgToProcess : svgsToProcess.entrySet()) {
+			String name = svgToProcess.getKey();
+			SourceFile source = svgToProcess.getValue();
+			File svg = source.getFile();
+			boolean unchanged = false;
+			String checksum;
 			try {
-				String inputURI = svgToProcess.getValue().toURI().toString();
-				Document svgDoc = this.svgDocFactory.createDocument(inputURI);
-				SVGSVGElement svgDocElement = (SVGSVGElement) svgDoc.getDocumentElement();
-				float width = svgDocElement.getWidth().getBaseVal().getValue();
+				checksum = this.incremental ? previousManifest.checksum(name, source) : Checksums.sha1(svg);
+			}
+			catch (IOException e) {
+				throw new MojoFailureException("Unable to read " + svg.getAbsolutePath(), e);
+			}
+			if (this.incremental) {
+				manifest.addSource(name, source, checksum);
+				unchanged = sameSettings && checksum.equals(previousManifest.getSourceChecksum(name));
+			}
+			if (unchanged) {
+				// The SVG was either converted to a VectorDrawable or rasterized by the last build, keep whichever outputs it produced.
+				List<String> previousOutputs = getVectorDrawableOutputs(name);
+				if (!this.vectorDrawables || !previousManifest.isOutputUnchanged(this.targetDir, previousOutputs.get(0))) {
+					previousOutputs = getRasterizedOutputs(name);
+					for (String output : previousOutputs) {
+						unchanged = unchanged && previousManifest.isOutputUnchanged(this.targetDir, output);
+					}
+				}
+				if (unchanged) {
+					getLog().debug("Skipping " + svg + ", it is unchanged since the last build");
+					outputs.addAll(previousOutputs);
+					upToDate++;
+					continue;
+				}
+			}
+			if (pipeline == null) {
+				pipeline = new RasterizePipeline(this, rasterizeCache);
+			}
+			RasterizeJob job = new RasterizeJob(svg, name);
+			// Identical SVGs produce identical outputs, as long as they use the same density strategy, so only the first is rasterized.
+			String jobKey = checksum + ";" + pipeline.getDensityStrategy(job);
+			RasterizeJob original = uniqueJobs.get(jobKey);
+			if (original != null) {
+				getLog().debug(svg + " is identical to " + original.svg + ", its outputs will be copied");
+				original.duplicates.add(name);
+				continue;
+			}
+			uniqueJobs.put(jobKey, job);
+			jobs.add(job);
+		}
+		if (pipeline != null) {
+			pipeline.run(jobs);
+		}
+		int converted = 0;
+		int copied = 0;
+		List<String> rasterizedOutputs = new ArrayList<String>();
+		for (RasterizeJob job : jobs) {
+			List<String> jobOutputs;
+			if (job.vectorDrawable) {
+				jobOutputs = getVectorDrawableOutputs(job.name);
+				converted++;
+			}
+			else {
+				jobOutputs = getRasterizedOutputs(job.name);
+				rasterizedOutputs.addAll(jobOutputs);
+			}
+			outputs.addAll(jobOutputs);
+			for (String duplicate : job.duplicates) {
+				List<String> duplicateOutputs = job.vectorDrawable ? getVectorDrawableOutputs(duplicate) : getRasterizedOutputs(duplicate);
+				copyOutputs(jobOutputs, duplicateOutputs);
+				outputs.addAll(duplicateOutputs);
+				copied++;
+			}
+		}
+		if (this.vectorDrawables) {
+			getLog().info("Converted " + converted + " of " + jobs.size() + " SVGs to VectorDrawables");
+		}
+		if (copied > 0) {
+			getLog().info("Copied the outputs of " + copied + " SVGs which are identical to another SVG, rather than rasterizing them");
+		}
+		reportIdenticalOutputs(rasterizedOutputs);
+		if (rasterizeCache != null) {
+			getLog().info("Rasterize cache: " + rasterizeCache.getHits() + " hits, " + rasterizeCache.getMisses() + " misses");
+			int evicted = rasterizeCache.evict();
+			if (evicted > 0) {
+				getLog().info("Rasterize cache: evicted " + evicted + " entries to stay within " + this.cacheMaxSize + "MB");
+			}
+		}
 
-				for (Density density : this.densities) {
-					getLog().debug(
-							"Rasterizing " + svgToProcess.getValue() + " -> " + density.getName() + "/" + svgToProcess.getKey() + "." + this.rasterizedType + " [" + density.getScaleFactor() + "]");
+		if (this.incremental) {
+			for (String output : outputs) {
+				manifest.addOutput(this.targetDir, output);
+			}
+			deleteStaleOutputs(previousManifest.getOutputs(), outputs);
+			try {
+				manifest.store(this.manifestFile);
+			}
+			catch (IOException e) {
+				throw new MojoExecutionException("Unable to write manifest " + this.manifestFile.getAbsolutePath(), e);
+			}
+			getLog().info("Rasterized " + (svgsToProcess.size() - upToDate) + " SVGs, " + upToDate + " SVGs were up to date");
+		}
+	}
 
-					File outputDir = createDirectory(this.targetDir, density.getName());
-					File outputFile = new File(outputDir, svgToProcess.getKey() + "." + this.rasterizedType);
-					outputFile.createNewFile();
-					OutputStream os = new FileOutputStream(outputFile);
+	/**
+	 * Batik isn't loaded until a SVG has been found which needs to be rasterized, the transcoder factory and the transcoders, parsers and
+	 * renderers are all created once the {@link RasterizePipeline} is, so modules without any SVGs, or whose SVGs are all up to date, never
+	 * load Batik.
+	 * 
+	 * @return the transcoder factory, created on first use.
+	 */
+	TranscoderFactory getTranscoderFactory() {
+		if (this.transcoderFactory == null) {
+			this.transcoderFactory = new TranscoderFactory();
+		}
+		return this.transcoderFactory;
+	}
 
-					TranscoderInput input = new TranscoderInput(svgDoc);
-					TranscoderOutput output = new TranscoderOutput(os);
+	/**
+	 * @return a description of the plugin configuration which affects the rasterized output, if this changes between builds every SVG
+	 *         must be rasterized again.
+	 */
+	String getSettings() {
+		StringBuilder settings = new StringBuilder();
+		settings.append(this.pluginVersion).append(';').append(this.rasterizedType).append(';').append(this.encoderProfile);
+		settings.append(';').append(this.densityStrategy).append(';').append(this.downsampleExcludes).append(';').append(this.vectorDrawables);
+		// Images rendered in strips are encoded by a different writer, so the strip settings affect the bytes written.
+		settings.append(";tiledRenderThreshold=").append(this.tiledRenderThreshold).append(";tileHeight=").append(this.tileHeight);
+		for (Density density : this.densities) {
+			settings.append(';').append(density.getName()).append('=').append(density.getScaleFactor());
+		}
+		return settings.toString();
+	}
 
-					transcoder.addTranscodingHint(ImageTranscoder.KEY_WIDTH, new Float(Math.ceil(density.getScaleFactor() * width)));
-					transcoder.transcode(input, output);
-				}
+	/**
+	 * Copies each of the outputs of a SVG to the corresponding output of an identical SVG.
+	 * 
+	 * @param sourceOutputs
+	 * @param targetOutputs
+	 * @throws MojoFailureException
+	 *             if any of the outputs could not be copied.
+	 */
+	void copyOutputs(final List<String> sourceOutputs, final List<String> targetOutputs) throws MojoFailureException {
+		for (int i = 0; i < sourceOutputs.size(); i++) {
+			File source = new File(this.targetDir, sourceOutputs.get(i));
+			File target = new File(this.targetDir, targetOutputs.get(i));
+			try {
+				FileUtils.copyFile(source, target);
+			}
+			catch (IOException e) {
+				throw new MojoFailureException("Unable to copy " + source.getAbsolutePath() + " to " + target.getAbsolutePath(), e);
+			}
+		}
+	}
 
+	/**
+	 * Logs each group of rasterized images which are identical to each other, such as the same image at several densities, which could
+	 * be replaced by a single image.
+	 * 
+	 * @param rasterizedOutputs
+	 *            the paths, relative to the target directory, of the images rasterized by this build.
+	 * @throws MojoFailureException
+	 *             if any of the images could not be read.
+	 */
+	void reportIdenticalOutputs(final List<String> rasterizedOutputs) throws MojoFailureException {
+		Map<String, List<String>> outputsByChecksum = new LinkedHashMap<String, List<String>>();
+		for (String output : rasterizedOutputs) {
+			File outputFile = new File(this.targetDir, output);
+			String checksum;
+			try {
+				checksum = Checksums.sha1(outputFile);
 			}
 			catch (IOException e) {
-				throw new MojoFailureException("Unable to rasterize " + svgToProcess.getValue().getAbsolutePath(), e);
+				throw new MojoFailureException("Unable to read " + outputFile.getAbsolutePath(), e);
+			}
+			List<String> identical = outputsByChecksum.get(checksum);
+			if (identical == null) {
+				identical = new ArrayList<String>();
+				outputsByChecksum.put(checksum, identical);
+			}
+			identical.add(output);
+		}
+		for (List<String> identical : outputsByChecksum.values()) {
+			if (identical.size() > 1) {
+				getLog().info("Rasterized images are identical: " + identical);
 			}
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return the paths, relative to the target directory, of the images the SVG is rasterized to.
+	 */
+	List<String> getRasterizedOutputs(final String name) {
+		List<String> outputs = new ArrayList<String>();
+		for (Density density : this.densities) {
+			outputs.add(density.getName() + "/" + name + "." + this.rasterizedType);
+		}
+		return outputs;
+	}
+
+	/**
+	 * @param name
+	 * @return the path, relative to the target directory, of the VectorDrawable the SVG is converted to.
+	 */
+	List<String> getVectorDrawableOutputs(final String name) {
+		return Collections.singletonList(Constants.VECTOR_DRAWABLE_DIR + "/" + name + ".xml");
+	}
 
-			catch (TranscoderException e) {
-				throw new MojoFailureException("Unable to rasterize " + svgToProcess.getValue().getAbsolutePath(), e);
+	/**
+	 * Deletes any previous outputs which are no longer produced, i.e. the source SVG has been removed or the densities or type have been
+	 * changed.
+	 * 
+	 * @param previousOutputs
+	 * @param outputs
+	 */
+	void deleteStaleOutputs(final Set<String> previousOutputs, final List<String> outputs) {
+		previousOutputs.removeAll(outputs);
+		for (String staleOutput : previousOutputs) {
+			File staleFile = new File(this.targetDir, staleOutput);
+			if (staleFile.exists()) {
+				getLog().debug("Deleting " + staleFile + ", its source no longer exists");
+				if (!staleFile.delete()) {
+					getLog().warn("Unable to delete " + staleFile);
+				}
 			}
 		}
 	}
 
 	/**
-	 * Returns a map of all SVGs contain in the rootDirectory and its sub directories, the map is keyed by the output name for that file
-	 * when rasterized and contains the input file as the value. The output names will be in lower case, and in the case where the file is
-	 * contained in a sub directory, the output file name will be prefixed with the directory path separated by '_', i.e
-	 * ${subDir1}_${subDir2}_${imageFileName}.
+	 * Generates the key of a rasterized image in the cache, from only the settings which change the bytes of the image: the SVG contents,
+	 * the scale factor, the type, the encoder profile, the strip rendering settings, the transcoder class, the density strategy used for
+	 * the SVG, the scale factor of the largest density if the SVG is downsampled from it, and the Batik and plugin versions. Settings which
+	 * don't change the image, such as the other densities of the module, aren't used so that projects can share entries. The transcoder's
+	 * hints aren't used either, as some of them, such as its DOM implementation, have no stable description.
 	 * 
-	 * @param rootDirectory
+	 * @param checksum
+	 *            the checksum of the SVG.
+	 * @param density
+	 * @param transcoder
+	 * @param densityStrategy
+	 *            the density strategy used for the SVG.
 	 * @return
 	 */
-	Map<String, File> getSVGsToProcess(final File rootDirectory) {
-		Asserts.notNull(rootDirectory, "rootDirectory");
-		Map<String, File> fileMappings = new HashMap<String, File>();
-		getSVGsToProcess(fileMappings, rootDirectory.listFiles(), "");
-		return fileMappings;
+	String getCacheKey(final String checksum, final Density density, final ImageTranscoder transcoder, final String densityStrategy) {
+		String downsampledFrom = Constants.DENSITY_STRATEGY_DOWNSAMPLE.equals(densityStrategy) ? String.valueOf(getLargestDensity().getScaleFactor())
+				: null;
+		return Checksums.sha1(checksum, String.valueOf(density.getScaleFactor()), this.rasterizedType, this.encoderProfile, "tiledRenderThreshold="
+				+ this.tiledRenderThreshold, "tileHeight=" + this.tileHeight, transcoder.getClass().getName(), densityStrategy, downsampledFrom,
+				Version.getVersion(), this.pluginVersion);
 	}
 
 	/**
-	 * Processes the file list for potential SVG files. If a file is found it is added to the map with a key of the file name prefixed with
-	 * the file name prefix. If a potential SVG file is found to be a directory, it will call this method recursively to process the
-	 * potential SVGs in this folder, with the fileNamePrefix appended by the directory name and a '_'
-	 * 
-	 * @param fileMappings
-	 * @param potentialSVGs
-	 * @param fileNamePrefix
+	 * @return the density with the largest scale factor, which the other densities are downsampled from by the <code>downsample</code>
+	 *         density strategy.
 	 */
-	void getSVGsToProcess(final Map<String, File> fileMappings, final File[] potentialSVGs, final String fileNamePrefix) {
-		for (File potentialSVG : potentialSVGs) {
-			String potentialSVGName = fileNamePrefix + potentialSVG.getName();
-			if (potentialSVG.isFile() && potentialSVG.getName().toLowerCase().endsWith(Constants.SVG_FILE_TYPE)) {
-				// Output file name sans the extension
-				String outputFileName = potentialSVGName.substring(0, potentialSVGName.length() - Constants.SVG_FILE_TYPE.length());
-				getLog().debug("Mapping " + potentialSVG + " to " + outputFileName);
-				fileMappings.put(outputFileName, potentialSVG);
-			}
-			else if (potentialSVG.isDirectory()) {
-				getSVGsToProcess(fileMappings, potentialSVG.listFiles(), potentialSVGName + "_");
-			}
-			else {
-				getLog().debug("Ignoring resource " + potentialSVG);
+	Density getLargestDensity() {
+		Density largest = this.densities.get(0);
+		for (Density density : this.densities) {
+			if (density.getScaleFactor() > largest.getScaleFactor()) {
+				largest = density;
 			}
 		}
+		return largest;
+	}
+
+	/**
+	 * Returns a map of all SVGs contain in the rootDirectory and its sub directories, the map is keyed by the output name for that file
+	 * when rasterized and contains the input file, with the attributes cached when it was scanned, as the value. In the case where the file is contained in a sub directory, the output file
+	 * name will be prefixed with the directory path separated by '_', i.e ${subDir1}_${subDir2}_${imageFileName}. Only the SVGs matching
+	 * {@link #includes} and not matching {@link #excludes} are returned.
+	 * 
+	 * @param rootDirectory
+	 * @return
+	 */
+	Map<String, SourceFile> getSVGsToProcess(final File rootDirectory) {
+		Asserts.notNull(rootDirectory, "rootDirectory");
+		Map<String, SourceFile> fileMappings = new HashMap<String, SourceFile>();
+		if (!rootDirectory.isDirectory()) {
+			getLog().debug("SVG directory " + rootDirectory + " does not exist");
+			return fileMappings;
+		}
+		SourceScanner scanner = new SourceScanner(Collections.singleton(Constants.SVG_FILE_TYPE.substring(1)), Collections.<String> emptySet(),
+				this.includes, this.excludes);
+		for (SourceFile svg : scanner.scan(rootDirectory).getFiles()) {
+			getLog().debug("Mapping " + svg.getFile() + " to " + svg.getName());
+			fileMappings.put(svg.getName(), svg);
+		}
+		return fileMappings;
 	}
 
 }
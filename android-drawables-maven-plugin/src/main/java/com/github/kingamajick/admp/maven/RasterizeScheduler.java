@@ -0,0 +1,105 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven;
+
+import com.github.kingamajick.admp.maven.beans.Density;
+
+/**
+ * Admits images for rendering while the estimated memory of the images in flight, from the point they are rendered until they have been
+ * encoded, stays within a budget. The memory of an image is estimated as an ARGB raster of the width and height of the SVG multiplied by
+ * the scale factor of the density. An image larger than the budget is admitted once no other images are in flight, so that it is rendered
+ * on its own rather than never.
+ * 
+ * @author R King
+ * 
+ */
+final class RasterizeScheduler {
+
+	static final int BYTES_PER_PIXEL = 4;
+
+	private final long budget;
+	private long inFlight;
+	private long peak;
+
+	/**
+	 * @param budget
+	 *            the maximum estimated memory in bytes of the images in flight, if 0 or less the memory isn't limited.
+	 */
+	RasterizeScheduler(final long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Estimates the memory needed to hold the image of a SVG rendered at the given density.
+	 * 
+	 * @param width
+	 *            the width of the SVG.
+	 * @param height
+	 *            the height of the SVG.
+	 * @param density
+	 * @return the estimated size of the image in bytes.
+	 */
+	static long estimateBytes(final float width, final float height, final Density density) {
+		long imageWidth = (long) Math.ceil(density.getScaleFactor() * width);
+		long imageHeight = (long) Math.ceil(density.getScaleFactor() * height);
+		return imageWidth * imageHeight * BYTES_PER_PIXEL;
+	}
+
+	/**
+	 * Waits until the image can be admitted without exceeding the budget, or the timeout elapses.
+	 * 
+	 * @param bytes
+	 *            the estimated size of the image.
+	 * @param timeoutMillis
+	 * @return true if the image was admitted, in which case {@link #release(long)} must be called once it has been encoded.
+	 * @throws InterruptedException
+	 */
+	synchronized boolean tryAdmit(final long bytes, final long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!canAdmit(bytes)) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		this.inFlight += bytes;
+		this.peak = Math.max(this.peak, this.inFlight);
+		return true;
+	}
+
+	/**
+	 * Releases an image admitted by {@link #tryAdmit(long, long)}.
+	 * 
+	 * @param bytes
+	 */
+	synchronized void release(final long bytes) {
+		this.inFlight -= bytes;
+		notifyAll();
+	}
+
+	/**
+	 * @return the largest estimated memory in bytes of the images in flight at any one time.
+	 */
+	synchronized long getPeak() {
+		return this.peak;
+	}
+
+	private boolean canAdmit(final long bytes) {
+		return this.budget <= 0 || this.inFlight == 0 || this.inFlight + bytes <= this.budget;
+	}
+
+}
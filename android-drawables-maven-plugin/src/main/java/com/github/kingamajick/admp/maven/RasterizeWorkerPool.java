@@ -0,0 +1,66 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.batik.transcoder.image.ImageTranscoder;
+
+import com.github.kingamajick.admp.maven.transcoder.TranscoderFactory;
+import com.github.kingamajick.admp.maven.transcoder.TranscoderFactoryException;
+
+/**
+ * A pool of rasterization threads shared by every module of the reactor, so that modules rasterizing at the same time in a parallel build
+ * share a bounded number of threads rather than each starting their own. The threads keep the transcoders they create, so the Batik
+ * classes and transcoders warmed up by one module are reused by the next.
+ * 
+ * @author R King
+ * 
+ */
+public interface RasterizeWorkerPool {
+
+	String ROLE = RasterizeWorkerPool.class.getName();
+
+	/**
+	 * Runs the task on one of the pool's threads, waiting until it has completed.
+	 * 
+	 * @param task
+	 * @return the result of the task.
+	 * @throws ExecutionException
+	 *             if the task failed, the cause is the exception thrown by the task.
+	 * @throws InterruptedException
+	 */
+	<T> T execute(Callable<T> task) throws ExecutionException, InterruptedException;
+
+	/**
+	 * Returns the calling thread's transcoder for the given type and encoder profile, creating it with the factory if the thread doesn't
+	 * have one yet. Must only be called by a task running on the pool.
+	 * 
+	 * @param factory
+	 * @param type
+	 * @param profile
+	 * @return the transcoder.
+	 * @throws TranscoderFactoryException
+	 *             if the transcoder could not be created.
+	 */
+	ImageTranscoder getTranscoder(TranscoderFactory factory, String type, String profile) throws TranscoderFactoryException;
+
+	/**
+	 * @return the number of threads in the pool.
+	 */
+	int getThreads();
+}
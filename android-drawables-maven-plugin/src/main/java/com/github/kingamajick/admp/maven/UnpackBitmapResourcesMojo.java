@@ -19,8 +19,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -37,7 +47,12 @@ import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.io.RawInputStreamFacade;
 
 import com.github.kingamajick.admp.maven.beans.DrawableArtifact;
+import com.github.kingamajick.admp.maven.util.Checksums;
 import com.github.kingamajick.admp.maven.util.Constants;
+import com.github.kingamajick.admp.maven.util.DrawablePaths;
+import com.github.kingamajick.admp.maven.util.ExtractionCache;
+import com.github.kingamajick.admp.maven.util.FileLinks;
+import com.github.kingamajick.admp.maven.util.UnpackManifest;
 
 /**
  * Unpack the bitmap resources contained in one or more 'android-drawables' artifacts.
@@ -45,9 +60,15 @@ import com.github.kingamajick.admp.maven.util.Constants;
  * @author R King
  * 
  * @goal unpack
+ * @threadSafe
  */
 public class UnpackBitmapResourcesMojo extends AbstractMojo {
 
+	/**
+	 * The density qualifiers of drawables which aren't density specific, so aren't filtered by {@link #includeDensities}.
+	 */
+	private static final List<String> NON_SPECIFIC_DENSITIES = Arrays.asList("nodpi", "anydpi");
+
 	/**
 	 * @component
 	 * @readonly
@@ -81,46 +102,195 @@ public class UnpackBitmapResourcesMojo extends AbstractMojo {
 	private List<DrawableArtifact> drawableArtifacts;
 
 	/**
-	 * @parameter expression = "${cleanDrawableLocations} default-value = "false"
-	 * @readonly
+	 * The densities to unpack, for example <code>mdpi</code> and <code>hdpi</code>. If not set every density is unpacked. Drawables which
+	 * aren't density specific, in <code>drawable</code>, <code>drawable-nodpi</code> or <code>drawable-anydpi</code>, are always unpacked
+	 * unless excluded by name. Entries are filtered on their names, so drawables of densities not unpacked are never read.
+	 * 
+	 * @parameter
+	 */
+	private List<String> includeDensities;
+
+	/**
+	 * The densities not to unpack, for example <code>ldpi</code> and <code>tvdpi</code>.
+	 * 
+	 * @parameter
+	 */
+	private List<String> excludeDensities;
+
+	/**
+	 * If true, files unpacked by a previous build which none of the drawable artifacts provide any more, for example because an artifact
+	 * was removed or changed version, are deleted. Only the files recorded in <code>${manifestFile}</code> are considered, so files unpacked
+	 * before the manifest was first recorded aren't deleted.
+	 * 
+	 * @parameter expression = "${cleanDrawableLocations}" default-value = "false"
 	 */
 	private boolean cleanDrawableLocations;
 
+	/**
+	 * If true, the files unpacked are recorded in <code>${manifestFile}</code>, so the next build can recognise files which are unchanged
+	 * without reading them.
+	 * 
+	 * @parameter expression = "${incremental}" default-value = "true"
+	 */
+	private boolean incremental;
+
+	/**
+	 * The location of the manifest recording which drawable artifact owns each file unpacked.
+	 * 
+	 * @parameter expression = "${unpackManifestFile}" default-value = "${project.build.directory}/android-drawables-maven-plugin/unpack.properties"
+	 */
+	private File manifestFile;
+
+	/**
+	 * What to do when drawable artifacts provide different drawables at the same path, drawables which are identical are only unpacked
+	 * once:
+	 * <ul>
+	 * <li>warn : log a warning, the drawable from the last artifact is unpacked.</li>
+	 * <li>fail : fail the build.</li>
+	 * </ul>
+	 * Drawables are compared by the size and CRC-32 recorded in each artifact, so no files are read.
+	 * 
+	 * @parameter expression = "${conflictPolicy}" default-value = "warn"
+	 */
+	private String conflictPolicy;
+
+	/**
+	 * If true, the images of each release drawable artifact are extracted once next to the artifact in the local repository, and the unpack
+	 * location is populated from there, so that every project on the machine shares a single extraction. Snapshots are always unpacked
+	 * from the artifact.
+	 * 
+	 * @parameter expression = "${useExtractionCache}" default-value = "false"
+	 */
+	private boolean useExtractionCache;
+
+	/**
+	 * If true, images are hard linked from the extraction cache rather than copied, where the file system and the JVM running the build
+	 * support it. Images which can't be linked are copied. Linked images must not be modified in place, as that would modify the cache.
+	 * 
+	 * @parameter expression = "${linkResources}" default-value = "false"
+	 */
+	private boolean linkResources;
+
+	/**
+	 * The maximum number of artifacts resolved, and so downloaded, at the same time.
+	 * 
+	 * @parameter expression = "${resolveThreads}" default-value = "4"
+	 */
+	private int resolveThreads;
+
+	/**
+	 * The number of threads used to extract the entries of each artifact, if 0 one thread per processor is used.
+	 * 
+	 * @parameter expression = "${unpackThreads}" default-value = "0"
+	 */
+	private int unpackThreads;
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see org.apache.maven.plugin.Mojo#execute()
 	 */
 	public void execute() throws MojoExecutionException, MojoFailureException {
-		if (this.cleanDrawableLocations) {
-
+		if (this.conflictPolicy != null && !Constants.CONFLICT_POLICIES.contains(this.conflictPolicy)) {
+			throw new MojoExecutionException("Unknown conflict policy " + this.conflictPolicy + ", expected one of " + Constants.CONFLICT_POLICIES);
 		}
+		boolean useManifest = this.incremental || this.cleanDrawableLocations;
+		UnpackManifest previousManifest = useManifest ? UnpackManifest.load(this.manifestFile) : new UnpackManifest();
+		UnpackManifest manifest = new UnpackManifest();
 		List<Artifact> artifacts = resolve(this.drawableArtifacts);
-		unpackArchive(this.unpackLocation, artifacts);
+		unpackArchive(this.unpackLocation, artifacts, previousManifest, manifest);
+		if (this.cleanDrawableLocations) {
+			cleanDrawableLocations(this.unpackLocation, previousManifest, manifest);
+		}
+		if (useManifest) {
+			try {
+				manifest.store(this.manifestFile);
+			}
+			catch (IOException e) {
+				throw new MojoExecutionException("Unable to write manifest " + this.manifestFile.getAbsolutePath(), e);
+			}
+		}
 	}
 
 	/**
-	 * Resolves the given list of {@link DrawableArtifact} from both the local and remote repositories.
+	 * Resolves the given list of {@link DrawableArtifact} from both the local and remote repositories. Up to {@link #resolveThreads}
+	 * artifacts are resolved at the same time, each with its own request. Every artifact which couldn't be resolved is reported, and the
+	 * failure of the first of them is thrown.
 	 * 
 	 * @param drawableArtifacts
 	 * @return
 	 * @throws MojoFailureException
 	 */
 	List<Artifact> resolve(final List<DrawableArtifact> drawableArtifacts) throws MojoFailureException {
-		ArtifactResolutionRequest request = new ArtifactResolutionRequest();
-		request.setLocalRepository(this.localRepository);
-		request.setRemoteRepositories(this.remoteRepositories);
 		List<Artifact> artifacts = new ArrayList<Artifact>();
-		for (DrawableArtifact drawableArtifact : drawableArtifacts) {
-			Artifact artifact = this.repositorySystem.createArtifact(drawableArtifact.getGroupId(), drawableArtifact.getArtifactId(), drawableArtifact.getVersion(), "android-drawables");
-			request.setArtifact(artifact);
-			ArtifactResolutionResult result = this.repositorySystem.resolve(request);
-			if (!artifact.isResolved()) {
-				handleNotResolved(artifact, result);
+		if (drawableArtifacts.isEmpty()) {
+			return artifacts;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.resolveThreads, drawableArtifacts.size())));
+		try {
+			List<Future<ArtifactResolutionResult>> results = new ArrayList<Future<ArtifactResolutionResult>>();
+			for (DrawableArtifact drawableArtifact : drawableArtifacts) {
+				final Artifact artifact = this.repositorySystem.createArtifact(drawableArtifact.getGroupId(), drawableArtifact.getArtifactId(),
+						drawableArtifact.getVersion(), "android-drawables");
+				artifacts.add(artifact);
+				results.add(executor.submit(new Callable<ArtifactResolutionResult>() {
+					public ArtifactResolutionResult call() {
+						ArtifactResolutionRequest request = new ArtifactResolutionRequest();
+						request.setLocalRepository(UnpackBitmapResourcesMojo.this.localRepository);
+						request.setRemoteRepositories(UnpackBitmapResourcesMojo.this.remoteRepositories);
+						request.setArtifact(artifact);
+						return UnpackBitmapResourcesMojo.this.repositorySystem.resolve(request);
+					}
+				}));
+			}
+			MojoFailureException failure = null;
+			for (int i = 0; i < artifacts.size(); i++) {
+				Artifact artifact = artifacts.get(i);
+				try {
+					ArtifactResolutionResult result = getResult(artifact, results.get(i));
+					if (!artifact.isResolved()) {
+						handleNotResolved(artifact, result);
+					}
+				}
+				catch (MojoFailureException e) {
+					getLog().error(e.getMessage());
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
 			}
-			artifacts.add(artifact);
+			return artifacts;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for the resolution of the artifact to complete.
+	 * 
+	 * @param artifact
+	 * @param result
+	 * @return
+	 * @throws MojoFailureException
+	 *             if resolution failed with an unexpected exception, or was interrupted.
+	 */
+	private ArtifactResolutionResult getResult(final Artifact artifact, final Future<ArtifactResolutionResult> result) throws MojoFailureException {
+		try {
+			return result.get();
+		}
+		catch (ExecutionException e) {
+			throw new MojoFailureException("Unable to resolve " + artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion() + ":"
+					+ artifact.getType(), e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoFailureException("Interrupted while resolving " + artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion()
+					+ ":" + artifact.getType(), e);
 		}
-		return artifacts;
 	}
 
 	/**
@@ -131,76 +301,284 @@ public class UnpackBitmapResourcesMojo extends AbstractMojo {
 	 * @throws MojoFailureException
 	 */
 	void unpackArchive(final File outputLocation, final List<Artifact> artifacts) throws MojoFailureException {
+		unpackArchive(outputLocation, artifacts, new UnpackManifest(), new UnpackManifest());
+	}
+
+	/**
+	 * Unpacks the list of artifacts representing 'android-drawable' artifacts to given output location, recording the files unpacked and
+	 * the artifacts which own them.
+	 * 
+	 * @param outputLocation
+	 * @param artifacts
+	 * @param previousManifest
+	 *            the files unpacked by the previous build.
+	 * @param manifest
+	 *            the manifest the files unpacked are recorded in.
+	 * @throws MojoFailureException
+	 */
+	void unpackArchive(final File outputLocation, final List<Artifact> artifacts, final UnpackManifest previousManifest, final UnpackManifest manifest)
+			throws MojoFailureException {
 		if (!outputLocation.exists()) {
 			boolean success = outputLocation.mkdirs();
 			if (!success) {
 				throw new MojoFailureException("Unable to create output location " + outputLocation.getAbsolutePath());
 			}
 		}
+		// The entries unpacked so far keyed by their path, used to detect entries which appear in more than one artifact.
+		Map<String, UnpackedEntry> unpacked = new HashMap<String, UnpackedEntry>();
+		ExtractionCache extractionCache = new ExtractionCache();
 		for (Artifact artifact : artifacts) {
 			File artifactFile = artifact.getFile();
 			// If artifact is resolved using m2e it's possible that the artifact file will actually be the target location of the workspace
 			// project.
 			if (artifactFile.isFile()) {
-				unpackZipFile(outputLocation, artifactFile);
+				File extractedDirectory = null;
+				if (this.useExtractionCache && !artifact.isSnapshot()) {
+					try {
+						extractedDirectory = extractionCache.extract(artifactFile);
+					}
+					catch (IOException e) {
+						getLog().warn("Unable to use the extraction cache for " + artifact + ", unpacking it directly", e);
+					}
+				}
+				unpackZipFile(outputLocation, artifactFile, extractedDirectory, unpacked, String.valueOf(artifact), previousManifest, manifest);
 			}
 			if (artifactFile.isDirectory()) {
-				unpackDirectory(outputLocation, artifactFile);
+				unpackDirectory(outputLocation, artifactFile, unpacked, String.valueOf(artifact), manifest);
 			}
 
 		}
+		if (this.useExtractionCache) {
+			getLog().info("Extraction cache: " + extractionCache.getHits() + " hits, " + extractionCache.getMisses() + " misses");
+		}
 
 	}
 
 	/**
+	 * Unpacks the image entries of the zip file. Entries whose destination already has the size and CRC-32 recorded in the zip file's
+	 * central directory are skipped, the rest are extracted across {@link #unpackThreads} threads, each with its own handle on the zip
+	 * file.
+	 * 
 	 * @param outputLocation
 	 * @param zipFile
+	 * @param extractedDirectory
+	 *            the directory the images of the zip file have been extracted to by the {@link ExtractionCache}, or null.
+	 * @param unpacked
+	 *            the entries unpacked from previous artifacts, which the entries of this artifact are added to.
+	 * @param owner
+	 *            the artifact the zip file belongs to.
+	 * @param previousManifest
+	 * @param manifest
 	 */
-	private void unpackZipFile(final File outputLocation, final File zipFile) throws MojoFailureException {
+	private void unpackZipFile(final File outputLocation, final File zipFile, final File extractedDirectory, final Map<String, UnpackedEntry> unpacked,
+			final String owner, final UnpackManifest previousManifest, final UnpackManifest manifest) throws MojoFailureException {
 		try {
+			List<ZipEntry> imageEntries = new ArrayList<ZipEntry>();
+			int filtered = 0;
 			ZipFile archiveFile = new ZipFile(zipFile);
-			for (ZipEntry zipEntry : Collections.list(archiveFile.entries())) {
-				String entryName = zipEntry.getName();
-				if (zipEntry.isDirectory()) {
-					continue;
-				}
-				if (Constants.IMAGE_TYPES.contains(FilenameUtils.getExtension(entryName))) {
-					InputStream is = archiveFile.getInputStream(zipEntry);
-					File destination = new File(outputLocation, entryName);
-					if (destination.exists()) {
-						// TODO: Check if source and destination are different!
-						getLog().warn("Overwritting " + destination + ", this entry must appear more than once in the 'artifact-drawable' artifacts");
+			try {
+				for (ZipEntry zipEntry : Collections.list(archiveFile.entries())) {
+					String entryName = zipEntry.getName();
+					if (zipEntry.isDirectory()) {
+						continue;
+					}
+					if (!isDensitySelected(DrawablePaths.getDirectoryName(entryName))) {
+						filtered++;
+						continue;
+					}
+					if (Constants.IMAGE_TYPES.contains(FilenameUtils.getExtension(entryName))) {
+						if (addUnpackedEntry(unpacked, entryName, owner, zipEntry.getSize(), zipEntry.getCrc(), new File(outputLocation, entryName))) {
+							imageEntries.add(zipEntry);
+						}
+					}
+					else {
+						getLog().debug("Ignoring entry " + entryName);
 					}
-					getLog().debug("Unpacking " + entryName + " -> " + destination);
-					FileUtils.copyStreamToFile(new RawInputStreamFacade(is), destination);
+				}
+			}
+			finally {
+				archiveFile.close();
+			}
+			if (filtered > 0) {
+				getLog().debug("Skipped " + filtered + " entries of " + zipFile + " for densities not unpacked");
+			}
+
+			int threads = Math.max(1, Math.min(this.unpackThreads > 0 ? this.unpackThreads : Runtime.getRuntime().availableProcessors(), imageEntries.size()));
+			List<List<ZipEntry>> partitions = new ArrayList<List<ZipEntry>>();
+			for (int i = 0; i < threads; i++) {
+				partitions.add(new ArrayList<ZipEntry>());
+			}
+			for (int i = 0; i < imageEntries.size(); i++) {
+				partitions.get(i % threads).add(imageEntries.get(i));
+			}
+			final AtomicInteger extracted = new AtomicInteger();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<Void>> results = new ArrayList<Future<Void>>();
+				for (final List<ZipEntry> partition : partitions) {
+					results.add(executor.submit(new Callable<Void>() {
+						public Void call() throws IOException {
+							extracted.addAndGet(extractZipEntries(outputLocation, zipFile, extractedDirectory, partition, owner, previousManifest, manifest));
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> result : results) {
+					result.get();
+				}
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MojoFailureException("Interrupted while unpacking jar " + zipFile.getAbsolutePath(), e);
+			}
+			finally {
+				executor.shutdownNow();
+			}
+			getLog().debug("Unpacked " + extracted.get() + " entries of " + zipFile + ", " + (imageEntries.size() - extracted.get()) + " were up to date");
+		}
+		catch (IOException e) {
+			throw new MojoFailureException("Unable to unpack jar " + zipFile.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Extracts the entries from the zip file, skipping any whose destination is already identical. A destination recorded as unpacked
+	 * from an identical entry by the previous build, and unchanged since, isn't read. If the zip file has been extracted by the
+	 * {@link ExtractionCache}, entries are copied, or linked, from the extraction rather than decompressed.
+	 * 
+	 * @param outputLocation
+	 * @param zipFile
+	 * @param extractedDirectory
+	 *            the directory the images of the zip file have been extracted to, or null.
+	 * @param zipEntries
+	 * @param owner
+	 * @param previousManifest
+	 * @param manifest
+	 * @return the number of entries extracted.
+	 * @throws IOException
+	 */
+	int extractZipEntries(final File outputLocation, final File zipFile, final File extractedDirectory, final List<ZipEntry> zipEntries,
+			final String owner, final UnpackManifest previousManifest, final UnpackManifest manifest) throws IOException {
+		int extracted = 0;
+		ZipFile archiveFile = new ZipFile(zipFile);
+		try {
+			for (ZipEntry zipEntry : zipEntries) {
+				File destination = new File(outputLocation, zipEntry.getName());
+				if (previousManifest.isUnchanged(zipEntry.getName(), zipEntry.getSize(), zipEntry.getCrc(), destination) || isUnchanged(zipEntry, destination)) {
+					getLog().debug(destination + " is up to date");
 				}
 				else {
-					getLog().debug("Ignoring entry " + entryName);
+					// The destination may be linked to the extraction cache, so it is replaced rather than written to.
+					if (destination.exists() && !destination.delete()) {
+						throw new IOException("Unable to delete " + destination.getAbsolutePath());
+					}
+					File extractedFile = extractedDirectory != null ? new File(extractedDirectory, zipEntry.getName()) : null;
+					if (extractedFile == null || extractedFile.length() != zipEntry.getSize() || !copyExtractedFile(extractedFile, destination)) {
+						getLog().debug("Unpacking " + zipEntry.getName() + " -> " + destination);
+						InputStream is = archiveFile.getInputStream(archiveFile.getEntry(zipEntry.getName()));
+						try {
+							FileUtils.copyStreamToFile(new RawInputStreamFacade(is), destination);
+						}
+						finally {
+							is.close();
+						}
+					}
+					extracted++;
 				}
+				manifest.addFile(zipEntry.getName(), owner, zipEntry.getSize(), zipEntry.getCrc(), destination);
 			}
+		}
+		finally {
+			archiveFile.close();
+		}
+		return extracted;
+	}
 
+	/**
+	 * Copies, or links if {@link #linkResources} is set, a file extracted by the {@link ExtractionCache} to its destination.
+	 * 
+	 * @param extractedFile
+	 * @param destination
+	 * @return false if the file couldn't be copied, in which case it should be unpacked from the zip file.
+	 */
+	private boolean copyExtractedFile(final File extractedFile, final File destination) {
+		File parent = destination.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			return false;
+		}
+		if (this.linkResources) {
+			try {
+				FileLinks.createLink(extractedFile, destination);
+				getLog().debug("Linking " + extractedFile + " -> " + destination);
+				return true;
+			}
+			catch (IOException e) {
+				getLog().debug(e.getMessage() + ", copying it instead");
+			}
+		}
+		try {
+			getLog().debug("Copying " + extractedFile + " -> " + destination);
+			FileUtils.copyFile(extractedFile, destination);
+			return true;
 		}
 		catch (IOException e) {
-			throw new MojoFailureException("Unable to unpack jar " + zipFile.getAbsolutePath(), e);
+			getLog().debug("Unable to copy " + extractedFile + ", unpacking it instead: " + e);
+			return false;
 		}
 	}
 
+	/**
+	 * Checks if the destination has the size and CRC-32 of the zip entry, as recorded in the zip file's central directory. The destination
+	 * is only read if its size matches.
+	 * 
+	 * @param zipEntry
+	 * @param destination
+	 * @return
+	 * @throws IOException
+	 */
+	static boolean isUnchanged(final ZipEntry zipEntry, final File destination) throws IOException {
+		return zipEntry.getSize() >= 0 && zipEntry.getCrc() >= 0 && destination.isFile() && destination.length() == zipEntry.getSize()
+				&& Checksums.crc32(destination) == zipEntry.getCrc();
+	}
+
 	/**
 	 * @param outputLocation
 	 * @param artifactFile
+	 * @param unpacked
+	 *            the entries unpacked from previous artifacts, which the drawables of this directory are added to.
+	 * @param owner
+	 *            the artifact the directory belongs to.
+	 * @param manifest
 	 */
-	private void unpackDirectory(final File outputLocation, final File directory) throws MojoFailureException {
+	private void unpackDirectory(final File outputLocation, final File directory, final Map<String, UnpackedEntry> unpacked, final String owner,
+			final UnpackManifest manifest) throws MojoFailureException {
 		getLog().info("unpackingDirectory");
 		File resDir = new File(directory, "res");
 		for (String dirName : Constants.DRAWABLE_DIRS) {
 			File dir = new File(resDir, dirName);
-			if (dir.exists()) {
+			if (dir.exists() && isDensitySelected(dirName)) {
 				File target = new File(outputLocation, "res/" + dirName);
 				for (File drawable : dir.listFiles()) {
 					String drawableName = drawable.getName();
 					if (Constants.IMAGE_TYPES.contains(FilenameUtils.getExtension(drawableName))) {
 						try {
-							FileUtils.copyFile(drawable, new File(target, drawableName));
+							String path = "res/" + dirName + "/" + drawableName;
+							File destination = new File(target, drawableName);
+							long crc = Checksums.crc32(drawable);
+							if (addUnpackedEntry(unpacked, path, owner, drawable.length(), crc, destination)) {
+								// The destination may be linked to the extraction cache, so it is replaced rather than written to.
+								if (destination.exists() && !destination.delete()) {
+									throw new IOException("Unable to delete " + destination.getAbsolutePath());
+								}
+								FileUtils.copyFile(drawable, destination);
+								manifest.addFile(path, owner, drawable.length(), crc, destination);
+							}
 						}
 						catch (IOException e) {
 							throw new MojoFailureException("Unable to unpack drawable from workspace resolution " + directory.getAbsolutePath(), e);
@@ -211,6 +589,95 @@ public class UnpackBitmapResourcesMojo extends AbstractMojo {
 		}
 	}
 
+	/**
+	 * Checks if drawables in the given resource directory should be unpacked, according to {@link #includeDensities} and
+	 * {@link #excludeDensities}.
+	 * 
+	 * @param dirName
+	 *            the name of the directory, for example <code>drawable-hdpi</code>.
+	 * @return
+	 */
+	boolean isDensitySelected(final String dirName) {
+		boolean hasIncludes = this.includeDensities != null && !this.includeDensities.isEmpty();
+		boolean hasExcludes = this.excludeDensities != null && !this.excludeDensities.isEmpty();
+		if (!hasIncludes && !hasExcludes) {
+			return true;
+		}
+		String density = DrawablePaths.getDensity(dirName);
+		if (density == null) {
+			return true;
+		}
+		if (hasExcludes && this.excludeDensities.contains(density)) {
+			return false;
+		}
+		return !hasIncludes || this.includeDensities.contains(density) || NON_SPECIFIC_DENSITIES.contains(density);
+	}
+
+	/**
+	 * Adds the entry to the entries unpacked so far. If an entry with the same path has already been unpacked from another artifact, the
+	 * two are compared by size and CRC-32: if they are identical this entry doesn't need to be unpacked, otherwise the conflict is handled
+	 * according to the {@link #conflictPolicy}.
+	 * 
+	 * @param unpacked
+	 * @param path
+	 * @param owner
+	 *            the artifact providing the entry.
+	 * @param size
+	 * @param crc
+	 * @param destination
+	 * @return true if the entry should be unpacked, false if an identical entry has already been unpacked.
+	 * @throws MojoFailureException
+	 *             if the entry differs from one already unpacked and the conflict policy is <code>fail</code>.
+	 */
+	boolean addUnpackedEntry(final Map<String, UnpackedEntry> unpacked, final String path, final String owner, final long size, final long crc,
+			final File destination) throws MojoFailureException {
+		UnpackedEntry previous = unpacked.get(path);
+		if (previous != null) {
+			if (previous.size == size && previous.crc == crc) {
+				getLog().debug("Skipping " + path + " from " + owner + ", it is identical to the one unpacked from " + previous.owner);
+				return false;
+			}
+			String conflict = path + " is provided by both " + previous.owner + " and " + owner + " with different contents";
+			if (Constants.CONFLICT_POLICY_FAIL.equals(this.conflictPolicy)) {
+				throw new MojoFailureException("Conflicting drawables, " + conflict);
+			}
+			getLog().warn("Overwritting " + destination + ", " + conflict);
+		}
+		unpacked.put(path, new UnpackedEntry(owner, size, crc));
+		return true;
+	}
+
+	/**
+	 * Deletes the files recorded by the previous build which aren't owned by any of the current drawable artifacts. Only the files recorded
+	 * are considered, so the unpack location is never scanned.
+	 * 
+	 * @param outputLocation
+	 * @param previousManifest
+	 *            the files unpacked by the previous build.
+	 * @param manifest
+	 *            the files unpacked by this build.
+	 */
+	void cleanDrawableLocations(final File outputLocation, final UnpackManifest previousManifest, final UnpackManifest manifest) {
+		Set<String> stalePaths = previousManifest.getPaths();
+		stalePaths.removeAll(manifest.getPaths());
+		int deleted = 0;
+		for (String stalePath : stalePaths) {
+			File staleFile = new File(outputLocation, stalePath);
+			if (staleFile.exists()) {
+				getLog().debug("Deleting " + staleFile + ", " + previousManifest.getOwner(stalePath) + " no longer provides it");
+				if (staleFile.delete()) {
+					deleted++;
+				}
+				else {
+					getLog().warn("Unable to delete " + staleFile);
+				}
+			}
+		}
+		if (deleted > 0) {
+			getLog().info("Deleted " + deleted + " drawables no longer provided by the drawable artifacts");
+		}
+	}
+
 	/**
 	 * Handles a result when the artifact hasn't been resolved. This is to wrap the separate problems that can occur when resolving an
 	 * artifact, missing metadata, version range violations, version circular dependencies, missing artifacts, network/transfer errors, file
@@ -233,4 +700,21 @@ public class UnpackBitmapResourcesMojo extends AbstractMojo {
 					+ ", unknown resolution issue");
 		}
 	}
+
+	/**
+	 * An entry unpacked from a drawable artifact, as described by the artifact's central directory.
+	 */
+	static final class UnpackedEntry {
+
+		final String owner;
+		final long size;
+		final long crc;
+
+		UnpackedEntry(final String owner, final long size, final long crc) {
+			this.owner = owner;
+			this.size = size;
+			this.crc = crc;
+		}
+	}
+
 }
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.transcoder;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import com.github.kingamajick.admp.maven.util.Asserts;
+
+/**
+ * Downsamples images by area averaging, each pixel of the target is the average of the area of the source it covers, weighted by how much
+ * of each source pixel falls inside it. Colors are averaged with premultiplied alpha, so fully transparent pixels don't bleed their color
+ * into the edges of shapes.
+ * 
+ * @author R King
+ * 
+ */
+public class ImageDownsampler {
+
+	/**
+	 * Downsamples the source to the given size, which must be no larger than the source in either dimension. The target image has the same
+	 * type as the source.
+	 * 
+	 * @param source
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public static BufferedImage downsample(final BufferedImage source, final int width, final int height) {
+		Asserts.notNull(source, "source");
+		int sourceWidth = source.getWidth();
+		int sourceHeight = source.getHeight();
+		if (width < 1 || height < 1 || width > sourceWidth || height > sourceHeight) {
+			throw new IllegalArgumentException("Unable to downsample a " + sourceWidth + "x" + sourceHeight + " image to " + width + "x" + height);
+		}
+
+		BufferedImage target = new BufferedImage(width, height, source.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB
+				: source.getType());
+		float xScale = (float) sourceWidth / width;
+		float yScale = (float) sourceHeight / height;
+		int[] sourceRow = new int[sourceWidth];
+		float[] resampledRow = new float[width * 4];
+		float[] sum = new float[width * 4];
+		int[] targetRow = new int[width];
+		for (int y = 0; y < height; y++) {
+			float top = y * yScale;
+			float bottom = Math.min(sourceHeight, (y + 1) * yScale);
+			Arrays.fill(sum, 0);
+			for (int sourceY = (int) top; sourceY < bottom; sourceY++) {
+				float weight = Math.min(bottom, sourceY + 1) - Math.max(top, sourceY);
+				if (weight <= 0) {
+					continue;
+				}
+				source.getRGB(0, sourceY, sourceWidth, 1, sourceRow, 0, sourceWidth);
+				resampleRow(sourceRow, xScale, resampledRow);
+				for (int i = 0; i < sum.length; i++) {
+					sum[i] += resampledRow[i] * weight;
+				}
+			}
+			float area = bottom - top;
+			for (int x = 0; x < width; x++) {
+				float a = sum[x * 4] / area;
+				int alpha = clamp(a);
+				if (alpha == 0) {
+					targetRow[x] = 0;
+					continue;
+				}
+				int r = clamp(sum[x * 4 + 1] / area * 255f / a);
+				int g = clamp(sum[x * 4 + 2] / area * 255f / a);
+				int b = clamp(sum[x * 4 + 3] / area * 255f / a);
+				targetRow[x] = alpha << 24 | r << 16 | g << 8 | b;
+			}
+			target.setRGB(0, y, width, 1, targetRow, 0, width);
+		}
+		return target;
+	}
+
+	/**
+	 * Averages the row horizontally to the width of the target, as premultiplied alpha, red, green and blue values.
+	 * 
+	 * @param sourceRow
+	 * @param xScale
+	 * @param target
+	 */
+	private static void resampleRow(final int[] sourceRow, final float xScale, final float[] target) {
+		int width = target.length / 4;
+		for (int x = 0; x < width; x++) {
+			float left = x * xScale;
+			float right = Math.min(sourceRow.length, (x + 1) * xScale);
+			float a = 0;
+			float r = 0;
+			float g = 0;
+			float b = 0;
+			for (int sourceX = (int) left; sourceX < right; sourceX++) {
+				float weight = Math.min(right, sourceX + 1) - Math.max(left, sourceX);
+				if (weight <= 0) {
+					continue;
+				}
+				int pixel = sourceRow[sourceX];
+				float alpha = (pixel >>> 24) * weight;
+				a += alpha;
+				r += ((pixel >> 16) & 0xff) * alpha / 255f;
+				g += ((pixel >> 8) & 0xff) * alpha / 255f;
+				b += (pixel & 0xff) * alpha / 255f;
+			}
+			float span = right - left;
+			target[x * 4] = a / span;
+			target[x * 4 + 1] = r / span;
+			target[x * 4 + 2] = g / span;
+			target[x * 4 + 3] = b / span;
+		}
+	}
+
+	private static int clamp(final float value) {
+		int rounded = (int) (value + 0.5f);
+		return rounded < 0 ? 0 : (rounded > 255 ? 255 : rounded);
+	}
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.transcoder;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+
+import com.github.kingamajick.admp.maven.util.Asserts;
+
+/**
+ * Losslessly recompresses PNGs, in the spirit of aapt's crunch. The PNG is decoded and encoded again by an optimizing {@link PNGEncoder},
+ * which reduces it to the smallest color type and bit depth able to represent its pixels, compresses it with several combinations of row
+ * filters and deflate strategies, and writes none of the ancillary chunks of the original such as text, timestamps or color profiles.
+ * <p>
+ * Only PNGs whose pixels are exactly represented as 8 bit sRGB colors are crunched, so 16 bit and grayscale PNGs are left as they are, and
+ * the crunched PNG is only kept if it is smaller than the original. As with aapt, the color of fully transparent pixels isn't preserved.
+ * 
+ * @author R King
+ * 
+ */
+public class PNGCruncher {
+
+	private final PNGEncoder encoder = new PNGEncoder(Deflater.BEST_COMPRESSION, true);
+
+	/**
+	 * Crunches the source PNG to the destination.
+	 * 
+	 * @param source
+	 * @param destination
+	 * @return true if the crunched PNG was written to the destination, false if the PNG can't be crunched losslessly or crunching it
+	 *         doesn't make it any smaller, in which case nothing is written.
+	 * @throws IOException
+	 */
+	public boolean crunch(final File source, final File destination) throws IOException {
+		Asserts.notNull(source, "source");
+		Asserts.notNull(destination, "destination");
+
+		BufferedImage image;
+		try {
+			image = ImageIO.read(source);
+		}
+		catch (IIOException e) {
+			// Not a PNG ImageIO can decode, leave it for aapt to report.
+			return false;
+		}
+		if (image == null || !isExact(image.getColorModel())) {
+			return false;
+		}
+		ByteArrayOutputStream crunched = new ByteArrayOutputStream((int) source.length());
+		this.encoder.encode(image, crunched);
+		if (crunched.size() >= source.length()) {
+			return false;
+		}
+		OutputStream os = new FileOutputStream(destination);
+		try {
+			crunched.writeTo(os);
+		}
+		finally {
+			os.close();
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that every color of the color model is an 8 bit (or smaller) sRGB color, so that reading the image as ARGB loses nothing.
+	 * 
+	 * @param colorModel
+	 * @return
+	 */
+	static boolean isExact(final ColorModel colorModel) {
+		if (!colorModel.getColorSpace().isCS_sRGB()) {
+			return false;
+		}
+		for (int size : colorModel.getComponentSize()) {
+			if (size > 8) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,661 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.transcoder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import com.github.kingamajick.admp.maven.util.Asserts;
+
+/**
+ * A PNG encoder with configurable compression. Only the chunks required to describe the image are written (<code>IHDR</code>,
+ * <code>PLTE</code>, <code>tRNS</code>, <code>IDAT</code> and <code>IEND</code>), so no metadata is included in the output.
+ * <p>
+ * When optimizing, the encoder losslessly reduces the image to the smallest color type and bit depth able to represent it (palette,
+ * grayscale and/or no alpha channel), then compresses it with several combinations of row filters and deflate strategies in parallel,
+ * keeping the smallest result.
+ * <p>
+ * Images too large to hold in memory can be written a strip of rows at a time using {@link #startStrips(OutputStream, int, int, boolean)}.
+ * As the whole image is never available, strips are always written as 8 bit truecolor.
+ * 
+ * @author R King
+ * 
+ */
+public class PNGEncoder {
+
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+	private static final int COLOR_TYPE_GRAY = 0;
+	private static final int COLOR_TYPE_RGB = 2;
+	private static final int COLOR_TYPE_PALETTE = 3;
+	private static final int COLOR_TYPE_GRAY_ALPHA = 4;
+	private static final int COLOR_TYPE_RGBA = 6;
+
+	private static final int FILTER_NONE = 0;
+	private static final int FILTER_SUB = 1;
+	private static final int FILTER_UP = 2;
+	private static final int FILTER_AVERAGE = 3;
+	private static final int FILTER_PAETH = 4;
+
+	/**
+	 * The maximum size of each IDAT chunk written when encoding in strips.
+	 */
+	private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Shared pool used to run the compression trials of optimized images. The threads are daemons and time out when idle, so the pool
+	 * never needs to be shut down.
+	 */
+	private static final ExecutorService TRIAL_EXECUTOR;
+	static {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			public Thread newThread(final Runnable r) {
+				Thread thread = new Thread(r, "png-encoder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		TRIAL_EXECUTOR = executor;
+	}
+
+	private final int compressionLevel;
+	private final boolean optimize;
+
+	/**
+	 * @param compressionLevel
+	 *            the deflate compression level (0-9), ignored when optimizing as the maximum level is always used.
+	 * @param optimize
+	 *            if true the image is reduced to the smallest color type and bit depth, and compressed with several filter and deflate
+	 *            strategies, keeping the smallest.
+	 */
+	public PNGEncoder(final int compressionLevel, final boolean optimize) {
+		if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("compressionLevel must be between 0 and 9");
+		}
+		this.compressionLevel = optimize ? Deflater.BEST_COMPRESSION : compressionLevel;
+		this.optimize = optimize;
+	}
+
+	/**
+	 * Encodes the image as a PNG.
+	 * 
+	 * @param image
+	 * @param os
+	 * @throws IOException
+	 */
+	public void encode(final BufferedImage image, final OutputStream os) throws IOException {
+		Asserts.notNull(image, "image");
+		Asserts.notNull(os, "os");
+
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+		ImageLayout layout = this.optimize ? ImageLayout.reduce(argb) : ImageLayout.truecolor(image.getColorModel().hasAlpha());
+		byte[][] rows = layout.toRows(argb, width, height);
+
+		byte[] compressed;
+		if (this.optimize) {
+			compressed = compressSmallest(rows, layout.getBytesPerPixel());
+		}
+		else {
+			compressed = compress(rows, layout.getBytesPerPixel(), false, this.compressionLevel, Deflater.DEFAULT_STRATEGY);
+		}
+
+		DataOutputStream out = new DataOutputStream(os);
+		writeHeader(out, width, height, layout);
+		writeChunk(out, "IDAT", compressed);
+		writeChunk(out, "IEND", new byte[0]);
+		out.flush();
+	}
+
+	/**
+	 * Starts encoding a PNG whose rows will be supplied a strip at a time, the signature and header are written immediately. When
+	 * optimizing, each row uses the filter which minimizes the sum of absolute differences and fully transparent pixels are stored as
+	 * transparent black, otherwise no filtering is performed. The compressed rows are written as they are produced, so only a single row of
+	 * the image is held by the encoder.
+	 * 
+	 * @param os
+	 * @param width
+	 * @param height
+	 * @param alpha
+	 *            true if the image has an alpha channel.
+	 * @return the writer to supply the strips to.
+	 * @throws IOException
+	 */
+	public StripWriter startStrips(final OutputStream os, final int width, final int height, final boolean alpha) throws IOException {
+		Asserts.notNull(os, "os");
+
+		return new StripWriter(os, width, height, ImageLayout.truecolor(alpha));
+	}
+
+	private static void writeHeader(final DataOutputStream out, final int width, final int height, final ImageLayout layout) throws IOException {
+		out.write(SIGNATURE);
+		ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+		DataOutputStream headerOut = new DataOutputStream(header);
+		headerOut.writeInt(width);
+		headerOut.writeInt(height);
+		headerOut.writeByte(layout.bitDepth);
+		headerOut.writeByte(layout.colorType);
+		headerOut.writeByte(0); // Compression method
+		headerOut.writeByte(0); // Filter method
+		headerOut.writeByte(0); // Interlace method
+		writeChunk(out, "IHDR", header.toByteArray());
+		if (layout.colorType == COLOR_TYPE_PALETTE) {
+			writeChunk(out, "PLTE", layout.getPaletteChunk());
+			byte[] transparency = layout.getTransparencyChunk();
+			if (transparency.length > 0) {
+				writeChunk(out, "tRNS", transparency);
+			}
+		}
+	}
+
+	/**
+	 * Compresses the rows using each combination of row filter and deflate strategy in parallel, and returns the smallest result.
+	 * 
+	 * @param rows
+	 * @param bytesPerPixel
+	 * @return
+	 * @throws IOException
+	 */
+	private byte[] compressSmallest(final byte[][] rows, final int bytesPerPixel) throws IOException {
+		List<Future<byte[]>> trials = new ArrayList<Future<byte[]>>();
+		for (final boolean adaptiveFilter : new boolean[] { false, true }) {
+			for (final int strategy : new int[] { Deflater.DEFAULT_STRATEGY, Deflater.FILTERED }) {
+				trials.add(TRIAL_EXECUTOR.submit(new Callable<byte[]>() {
+
+					public byte[] call() throws IOException {
+						return compress(rows, bytesPerPixel, adaptiveFilter, PNGEncoder.this.compressionLevel, strategy);
+					}
+				}));
+			}
+		}
+		byte[] smallest = null;
+		try {
+			for (Future<byte[]> trial : trials) {
+				byte[] compressed = trial.get();
+				if (smallest == null || compressed.length < smallest.length) {
+					smallest = compressed;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing image");
+		}
+		catch (ExecutionException e) {
+			IOException ioe = new IOException("Unable to compress image");
+			ioe.initCause(e.getCause());
+			throw ioe;
+		}
+		return smallest;
+	}
+
+	/**
+	 * Filters and deflates the rows.
+	 * 
+	 * @param rows
+	 * @param bytesPerPixel
+	 * @param adaptiveFilter
+	 *            if true each row uses the filter which minimizes the sum of absolute differences, otherwise no filtering is performed.
+	 * @param level
+	 * @param strategy
+	 * @return
+	 * @throws IOException
+	 */
+	static byte[] compress(final byte[][] rows, final int bytesPerPixel, final boolean adaptiveFilter, final int level, final int strategy) throws IOException {
+		Deflater deflater = new Deflater(level);
+		deflater.setStrategy(strategy);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater, 8192);
+		try {
+			byte[] previous = new byte[rows.length == 0 ? 0 : rows[0].length];
+			byte[][] candidates = adaptiveFilter ? new byte[5][previous.length] : null;
+			for (byte[] row : rows) {
+				writeRow(out, row, previous, bytesPerPixel, candidates);
+				previous = row;
+			}
+			out.finish();
+		}
+		finally {
+			out.close();
+			deflater.end();
+		}
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * Writes the filter type and filtered row.
+	 * 
+	 * @param out
+	 * @param row
+	 * @param previous
+	 *            the unfiltered previous row, all zeros for the first row.
+	 * @param bytesPerPixel
+	 * @param candidates
+	 *            a buffer for each filter type the length of a row, used to choose the filter which minimizes the sum of absolute
+	 *            differences. If null no filtering is performed.
+	 * @throws IOException
+	 */
+	static void writeRow(final OutputStream out, final byte[] row, final byte[] previous, final int bytesPerPixel, final byte[][] candidates)
+			throws IOException {
+		if (candidates == null) {
+			out.write(FILTER_NONE);
+			out.write(row);
+			return;
+		}
+		int bestFilter = FILTER_NONE;
+		long bestSum = Long.MAX_VALUE;
+		for (int filter = FILTER_NONE; filter <= FILTER_PAETH; filter++) {
+			filterRow(filter, row, previous, bytesPerPixel, candidates[filter]);
+			long sum = 0;
+			for (byte b : candidates[filter]) {
+				sum += Math.abs((int) b);
+			}
+			if (sum < bestSum) {
+				bestSum = sum;
+				bestFilter = filter;
+			}
+		}
+		out.write(bestFilter);
+		out.write(candidates[bestFilter]);
+	}
+
+	/**
+	 * Applies the filter to the row.
+	 * 
+	 * @param filter
+	 * @param row
+	 * @param previous
+	 *            the unfiltered previous row, all zeros for the first row.
+	 * @param bpp
+	 *            the number of bytes per complete pixel, rounding up to one.
+	 * @param out
+	 */
+	static void filterRow(final int filter, final byte[] row, final byte[] previous, final int bpp, final byte[] out) {
+		for (int i = 0; i < row.length; i++) {
+			int x = row[i] & 0xff;
+			int a = i >= bpp ? row[i - bpp] & 0xff : 0;
+			int b = previous[i] & 0xff;
+			int c = i >= bpp ? previous[i - bpp] & 0xff : 0;
+			switch (filter) {
+			case FILTER_SUB:
+				out[i] = (byte) (x - a);
+				break;
+			case FILTER_UP:
+				out[i] = (byte) (x - b);
+				break;
+			case FILTER_AVERAGE:
+				out[i] = (byte) (x - ((a + b) >>> 1));
+				break;
+			case FILTER_PAETH:
+				out[i] = (byte) (x - paeth(a, b, c));
+				break;
+			default:
+				out[i] = (byte) x;
+			}
+		}
+	}
+
+	private static int paeth(final int a, final int b, final int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc) {
+			return a;
+		}
+		return pb <= pc ? b : c;
+	}
+
+	private static void writeChunk(final DataOutputStream out, final String type, final byte[] data) throws IOException {
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data);
+		out.writeInt(data.length);
+		out.write(typeBytes);
+		out.write(data);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Encodes a PNG a strip of rows at a time, created by {@link PNGEncoder#startStrips(OutputStream, int, int, boolean)}.
+	 */
+	public final class StripWriter {
+
+		private final DataOutputStream out;
+		private final int width;
+		private final int height;
+		private final ImageLayout layout;
+		private final Deflater deflater;
+		private final DeflaterOutputStream idat;
+		private final int[] argb;
+		private final byte[][] candidates;
+		private byte[] previous;
+		private int rowsWritten;
+
+		StripWriter(final OutputStream os, final int width, final int height, final ImageLayout layout) throws IOException {
+			this.out = new DataOutputStream(os);
+			this.width = width;
+			this.height = height;
+			this.layout = layout;
+			this.deflater = new Deflater(PNGEncoder.this.compressionLevel);
+			this.idat = new DeflaterOutputStream(new IDATOutputStream(this.out), this.deflater, 8192);
+			this.argb = new int[width];
+			this.previous = new byte[width * layout.getBytesPerPixel()];
+			this.candidates = PNGEncoder.this.optimize ? new byte[5][this.previous.length] : null;
+			writeHeader(this.out, width, height, layout);
+		}
+
+		/**
+		 * Encodes the first rows of the strip, which must be the width of the image.
+		 * 
+		 * @param strip
+		 * @param rows
+		 *            the number of rows of the strip to encode.
+		 * @throws IOException
+		 */
+		public void write(final BufferedImage strip, final int rows) throws IOException {
+			if (strip.getWidth() != this.width || rows > strip.getHeight() || this.rowsWritten + rows > this.height) {
+				throw new IllegalArgumentException("Strip doesn't fit the image");
+			}
+			for (int y = 0; y < rows; y++) {
+				strip.getRGB(0, y, this.width, 1, this.argb, 0, this.width);
+				if (PNGEncoder.this.optimize) {
+					for (int x = 0; x < this.width; x++) {
+						if ((this.argb[x] >>> 24) == 0) {
+							this.argb[x] = 0;
+						}
+					}
+				}
+				byte[] row = this.layout.toRows(this.argb, this.width, 1)[0];
+				writeRow(this.idat, row, this.previous, this.layout.getBytesPerPixel(), this.candidates);
+				this.previous = row;
+			}
+			this.rowsWritten += rows;
+		}
+
+		/**
+		 * Completes the image once every row has been written.
+		 * 
+		 * @throws IOException
+		 */
+		public void finish() throws IOException {
+			if (this.rowsWritten != this.height) {
+				throw new IllegalStateException("Only " + this.rowsWritten + " of " + this.height + " rows have been written");
+			}
+			try {
+				this.idat.finish();
+				this.idat.flush();
+			}
+			finally {
+				this.deflater.end();
+			}
+			writeChunk(this.out, "IEND", new byte[0]);
+			this.out.flush();
+		}
+	}
+
+	/**
+	 * Writes the data written to it as a series of IDAT chunks, each up to {@link #IDAT_CHUNK_SIZE} bytes. A chunk is written when the
+	 * buffer is full or the stream is flushed, the underlying stream is never closed.
+	 */
+	private static final class IDATOutputStream extends OutputStream {
+
+		private final DataOutputStream out;
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(IDAT_CHUNK_SIZE);
+
+		IDATOutputStream(final DataOutputStream out) {
+			this.out = out;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.io.OutputStream#write(int)
+		 */
+		public void write(final int b) throws IOException {
+			this.buffer.write(b);
+			if (this.buffer.size() >= IDAT_CHUNK_SIZE) {
+				flush();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.io.OutputStream#write(byte[], int, int)
+		 */
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			int offset = off;
+			int remaining = len;
+			while (remaining > 0) {
+				int count = Math.min(remaining, IDAT_CHUNK_SIZE - this.buffer.size());
+				this.buffer.write(b, offset, count);
+				offset += count;
+				remaining -= count;
+				if (this.buffer.size() >= IDAT_CHUNK_SIZE) {
+					flush();
+				}
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.io.OutputStream#flush()
+		 */
+		public void flush() throws IOException {
+			if (this.buffer.size() > 0) {
+				writeChunk(this.out, "IDAT", this.buffer.toByteArray());
+				this.buffer.reset();
+			}
+		}
+	}
+
+	/**
+	 * The color type and bit depth used to store an image, along with the palette for palette images.
+	 */
+	static final class ImageLayout {
+
+		private final int colorType;
+		private final int bitDepth;
+		private final int[] palette;
+		private final Map<Integer, Integer> paletteIndex;
+
+		private ImageLayout(final int colorType, final int bitDepth, final int[] palette) {
+			this.colorType = colorType;
+			this.bitDepth = bitDepth;
+			this.palette = palette;
+			if (palette != null) {
+				this.paletteIndex = new HashMap<Integer, Integer>();
+				for (int i = 0; i < palette.length; i++) {
+					this.paletteIndex.put(palette[i], i);
+				}
+			}
+			else {
+				this.paletteIndex = null;
+			}
+		}
+
+		/**
+		 * @param alpha
+		 * @return an 8 bit RGBA or RGB layout.
+		 */
+		static ImageLayout truecolor(final boolean alpha) {
+			return new ImageLayout(alpha ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB, 8, null);
+		}
+
+		/**
+		 * Finds the smallest layout that can represent the pixels without loss. Fully transparent pixels are set to transparent black.
+		 * 
+		 * @param argb
+		 * @return
+		 */
+		static ImageLayout reduce(final int[] argb) {
+			boolean alpha = false;
+			boolean gray = true;
+			List<Integer> translucent = new ArrayList<Integer>();
+			List<Integer> opaque = new ArrayList<Integer>();
+			Map<Integer, Boolean> seen = new HashMap<Integer, Boolean>();
+			for (int i = 0; i < argb.length; i++) {
+				int a = argb[i] >>> 24;
+				if (a == 0) {
+					// The color of a fully transparent pixel is never seen, so they are all stored as the same color.
+					argb[i] = 0;
+				}
+				int pixel = argb[i];
+				alpha |= a != 0xff;
+				int r = (pixel >> 16) & 0xff;
+				gray &= r == ((pixel >> 8) & 0xff) && r == (pixel & 0xff);
+				if (seen.size() <= 256 && seen.put(pixel, Boolean.TRUE) == null) {
+					(a == 0xff ? opaque : translucent).add(pixel);
+				}
+			}
+			int colorCount = seen.size();
+			if (colorCount <= 256 && !(gray && !alpha && colorCount > 16)) {
+				// Translucent entries first, so the tRNS chunk can omit the trailing opaque entries.
+				int[] palette = new int[colorCount];
+				int i = 0;
+				for (int color : translucent) {
+					palette[i++] = color;
+				}
+				for (int color : opaque) {
+					palette[i++] = color;
+				}
+				int bitDepth = colorCount <= 2 ? 1 : colorCount <= 4 ? 2 : colorCount <= 16 ? 4 : 8;
+				return new ImageLayout(COLOR_TYPE_PALETTE, bitDepth, palette);
+			}
+			if (gray) {
+				return new ImageLayout(alpha ? COLOR_TYPE_GRAY_ALPHA : COLOR_TYPE_GRAY, 8, null);
+			}
+			return truecolor(alpha);
+		}
+
+		/**
+		 * @return the number of bytes per pixel used when filtering, rounded up to one.
+		 */
+		int getBytesPerPixel() {
+			switch (this.colorType) {
+			case COLOR_TYPE_RGBA:
+				return 4;
+			case COLOR_TYPE_RGB:
+				return 3;
+			case COLOR_TYPE_GRAY_ALPHA:
+				return 2;
+			default:
+				return 1;
+			}
+		}
+
+		/**
+		 * Converts the pixels to rows of bytes in this layout.
+		 * 
+		 * @param argb
+		 * @param width
+		 * @param height
+		 * @return
+		 */
+		byte[][] toRows(final int[] argb, final int width, final int height) {
+			int rowLength = this.colorType == COLOR_TYPE_PALETTE ? (width * this.bitDepth + 7) / 8 : width * getBytesPerPixel();
+			byte[][] rows = new byte[height][rowLength];
+			for (int y = 0; y < height; y++) {
+				byte[] row = rows[y];
+				int offset = y * width;
+				for (int x = 0; x < width; x++) {
+					int pixel = argb[offset + x];
+					switch (this.colorType) {
+					case COLOR_TYPE_RGBA:
+						row[x * 4] = (byte) (pixel >> 16);
+						row[x * 4 + 1] = (byte) (pixel >> 8);
+						row[x * 4 + 2] = (byte) pixel;
+						row[x * 4 + 3] = (byte) (pixel >>> 24);
+						break;
+					case COLOR_TYPE_RGB:
+						row[x * 3] = (byte) (pixel >> 16);
+						row[x * 3 + 1] = (byte) (pixel >> 8);
+						row[x * 3 + 2] = (byte) pixel;
+						break;
+					case COLOR_TYPE_GRAY_ALPHA:
+						row[x * 2] = (byte) pixel;
+						row[x * 2 + 1] = (byte) (pixel >>> 24);
+						break;
+					case COLOR_TYPE_GRAY:
+						row[x] = (byte) pixel;
+						break;
+					default:
+						int index = this.paletteIndex.get(pixel);
+						int bit = x * this.bitDepth;
+						row[bit / 8] |= index << (8 - this.bitDepth - bit % 8);
+					}
+				}
+			}
+			return rows;
+		}
+
+		/**
+		 * @return the contents of the PLTE chunk.
+		 */
+		byte[] getPaletteChunk() {
+			byte[] chunk = new byte[this.palette.length * 3];
+			for (int i = 0; i < this.palette.length; i++) {
+				chunk[i * 3] = (byte) (this.palette[i] >> 16);
+				chunk[i * 3 + 1] = (byte) (this.palette[i] >> 8);
+				chunk[i * 3 + 2] = (byte) this.palette[i];
+			}
+			return chunk;
+		}
+
+		/**
+		 * @return the contents of the tRNS chunk, the alpha of each palette entry up to the last translucent entry.
+		 */
+		byte[] getTransparencyChunk() {
+			int length = 0;
+			for (int i = 0; i < this.palette.length; i++) {
+				if ((this.palette[i] >>> 24) != 0xff) {
+					length = i + 1;
+				}
+			}
+			byte[] chunk = new byte[length];
+			for (int i = 0; i < length; i++) {
+				chunk[i] = (byte) (this.palette[i] >>> 24);
+			}
+			return chunk;
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.transcoder;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.TranscodingHints;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+import org.apache.batik.transcoder.keys.StringKey;
+
+import com.github.kingamajick.admp.maven.util.Constants;
+
+/**
+ * A {@link PNGTranscoder} which encodes images with a {@link PNGEncoder} configured for one of the following profiles:
+ * <ul>
+ * <li>fast : deflate level 1 with no row filtering, for quick local builds.</li>
+ * <li>release : lossless palette and bit depth reduction, with the smallest of several filter and deflate strategies compressed in
+ * parallel.</li>
+ * </ul>
+ * Neither profile writes any metadata chunks.
+ * 
+ * @author R King
+ * 
+ */
+public class ProfiledPNGTranscoder extends PNGTranscoder {
+
+	/**
+	 * The fast encoder profile.
+	 */
+	public static final String FAST = Constants.FAST_ENCODER_PROFILE;
+
+	/**
+	 * The release encoder profile.
+	 */
+	public static final String RELEASE = Constants.RELEASE_ENCODER_PROFILE;
+
+	/**
+	 * Hint recording the encoder profile, so that the profile is part of the transcoder's hints.
+	 */
+	public static final TranscodingHints.Key KEY_ENCODER_PROFILE = new StringKey();
+
+	private final PNGEncoder encoder;
+
+	/**
+	 * @param profile
+	 *            either {@link #FAST} or {@link #RELEASE}.
+	 */
+	public ProfiledPNGTranscoder(final String profile) {
+		if (FAST.equals(profile)) {
+			this.encoder = new PNGEncoder(1, false);
+		}
+		else if (RELEASE.equals(profile)) {
+			this.encoder = new PNGEncoder(9, true);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown encoder profile " + profile);
+		}
+		addTranscodingHint(KEY_ENCODER_PROFILE, profile);
+	}
+
+	/**
+	 * @return the encoder used by this transcoder's profile.
+	 */
+	public PNGEncoder getEncoder() {
+		return this.encoder;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.batik.transcoder.image.PNGTranscoder#writeImage(java.awt.image.BufferedImage,
+	 * org.apache.batik.transcoder.TranscoderOutput)
+	 */
+	public void writeImage(final BufferedImage img, final TranscoderOutput output) throws TranscoderException {
+		OutputStream os = output.getOutputStream();
+		if (os == null) {
+			throw new TranscoderException("An output stream is required to write the image");
+		}
+		try {
+			this.encoder.encode(img, os);
+			os.flush();
+		}
+		catch (IOException e) {
+			throw new TranscoderException(e);
+		}
+	}
+
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.transcoder;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Dimension2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.BridgeException;
+import org.apache.batik.bridge.DocumentLoader;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgent;
+import org.apache.batik.bridge.ViewBox;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.TranscodingHints;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.util.SVGConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.github.kingamajick.admp.maven.util.Asserts;
+
+/**
+ * Renders a SVG document at any number of sizes from a single GVT tree. The bridge, CSS cascade and layout are performed once when the
+ * renderer is created, rather than once per size as happens when {@link ImageTranscoder#transcode} is called for each size. The
+ * {@link ImageTranscoder} is only used to create and encode the image. Once all the sizes have been rendered {@link #dispose()} should be
+ * called to release the tree.
+ * <p>
+ * Large images can be rendered a strip of rows at a time, with each strip encoded as soon as it has been painted, so that only a single
+ * strip of the image is held in memory.
+ * 
+ * @author R King
+ * 
+ */
+public class SVGRenderer {
+
+	private final BridgeContext context;
+	private final Element rootElement;
+	private final float documentWidth;
+	private final float documentHeight;
+	private GraphicsNode rootNode;
+
+	/**
+	 * Builds the GVT tree for the document.
+	 * 
+	 * @param userAgent
+	 * @param document
+	 * @throws TranscoderException
+	 *             if the GVT tree could not be built.
+	 */
+	public SVGRenderer(final UserAgent userAgent, final Document document) throws TranscoderException {
+		Asserts.notNull(userAgent, "userAgent");
+		Asserts.notNull(document, "document");
+
+		this.context = new BridgeContext(userAgent, new DocumentLoader(userAgent));
+		try {
+			this.rootNode = new GVTBuilder().build(this.context, document);
+		}
+		catch (BridgeException e) {
+			this.context.dispose();
+			throw new TranscoderException(e);
+		}
+		Dimension2D documentSize = this.context.getDocumentSize();
+		this.documentWidth = (float) documentSize.getWidth();
+		this.documentHeight = (float) documentSize.getHeight();
+		this.rootElement = document.getDocumentElement();
+	}
+
+	/**
+	 * @return the width of the document in user units.
+	 */
+	public float getDocumentWidth() {
+		return this.documentWidth;
+	}
+
+	/**
+	 * @return the height of the document in user units.
+	 */
+	public float getDocumentHeight() {
+		return this.documentHeight;
+	}
+
+	/**
+	 * @param width
+	 * @return the height in pixels of the image rendered at the given width.
+	 */
+	public int getImageHeight(final float width) {
+		return (int) (this.documentHeight * width / this.documentWidth + 0.5f);
+	}
+
+	/**
+	 * Renders the document at the given width, and encodes it to the output stream using the transcoder.
+	 * 
+	 * @param transcoder
+	 * @param width
+	 * @param os
+	 * @throws TranscoderException
+	 *             if the image could not be encoded.
+	 */
+	public void render(final ImageTranscoder transcoder, final float width, final OutputStream os) throws TranscoderException {
+		transcoder.writeImage(render(transcoder, width), new TranscoderOutput(os));
+	}
+
+	/**
+	 * Renders the document at the given width, the height is scaled to preserve the aspect ratio of the document. The image is created by
+	 * the transcoder, and filled with the transcoder's background color if one has been set.
+	 * 
+	 * @param transcoder
+	 * @param width
+	 * @return
+	 */
+	public BufferedImage render(final ImageTranscoder transcoder, final float width) {
+		checkNotDisposed();
+		float height = this.documentHeight * width / this.documentWidth;
+		int imageWidth = (int) (width + 0.5f);
+		int imageHeight = (int) (height + 0.5f);
+
+		BufferedImage image = transcoder.createImage(imageWidth, imageHeight);
+		paint(image, transcoder.getTranscodingHints(), 0, getTransform(width, height), false);
+		return image;
+	}
+
+	/**
+	 * Renders the document at the given width a strip of rows at a time, passing each strip to the writer as soon as it has been painted.
+	 * A single strip image is created by the transcoder and reused for every strip.
+	 * 
+	 * @param transcoder
+	 * @param width
+	 * @param stripHeight
+	 *            the number of rows in each strip.
+	 * @param encoder
+	 * @param os
+	 * @throws IOException
+	 *             if the image could not be encoded.
+	 */
+	public void render(final ImageTranscoder transcoder, final float width, final int stripHeight, final PNGEncoder encoder, final OutputStream os)
+			throws IOException {
+		checkNotDisposed();
+		float height = this.documentHeight * width / this.documentWidth;
+		int imageWidth = (int) (width + 0.5f);
+		int imageHeight = (int) (height + 0.5f);
+		AffineTransform transform = getTransform(width, height);
+
+		BufferedImage strip = transcoder.createImage(imageWidth, Math.max(1, Math.min(stripHeight, imageHeight)));
+		PNGEncoder.StripWriter writer = encoder.startStrips(os, imageWidth, imageHeight, strip.getColorModel().hasAlpha());
+		for (int y = 0; y < imageHeight; y += strip.getHeight()) {
+			paint(strip, transcoder.getTranscodingHints(), y, transform, y > 0);
+			writer.write(strip, Math.min(strip.getHeight(), imageHeight - y));
+		}
+		writer.finish();
+	}
+
+	/**
+	 * Paints the GVT tree into the image, offset so that the top of the image is the given row of the rendered document.
+	 * 
+	 * @param image
+	 * @param hints
+	 * @param offsetY
+	 * @param transform
+	 *            the transform from user space to the rendered document.
+	 * @param clear
+	 *            true if the image has been painted before and must be cleared first.
+	 */
+	private void paint(final BufferedImage image, final TranscodingHints hints, final int offsetY, final AffineTransform transform, final boolean clear) {
+		Graphics2D g2d = GraphicsUtil.createGraphics(image);
+		try {
+			if (clear) {
+				g2d.setComposite(AlphaComposite.Clear);
+				g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+			}
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			if (hints != null && hints.containsKey(ImageTranscoder.KEY_BACKGROUND_COLOR)) {
+				g2d.setComposite(AlphaComposite.SrcOver);
+				g2d.setPaint((Paint) hints.get(ImageTranscoder.KEY_BACKGROUND_COLOR));
+				g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+			}
+			g2d.setComposite(AlphaComposite.SrcOver);
+			g2d.translate(0, -offsetY);
+			g2d.transform(transform);
+			this.rootNode.paint(g2d);
+		}
+		finally {
+			g2d.dispose();
+		}
+	}
+
+	private void checkNotDisposed() {
+		if (this.rootNode == null) {
+			throw new IllegalStateException("The renderer has been disposed");
+		}
+	}
+
+	/**
+	 * Releases the GVT tree and the bridge context.
+	 */
+	public void dispose() {
+		this.rootNode = null;
+		this.context.dispose();
+	}
+
+	/**
+	 * Computes the transform from user space to the image, using the view box of the root element if one is present. This matches the
+	 * transform computed by {@link ImageTranscoder}.
+	 * 
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	AffineTransform getTransform(final float width, final float height) {
+		String viewBox = this.rootElement.getAttributeNS(null, SVGConstants.SVG_VIEW_BOX_ATTRIBUTE);
+		if (viewBox != null && viewBox.length() != 0) {
+			String aspectRatio = this.rootElement.getAttributeNS(null, SVGConstants.SVG_PRESERVE_ASPECT_RATIO_ATTRIBUTE);
+			return ViewBox.getPreserveAspectRatioTransform(this.rootElement, viewBox, aspectRatio, width, height, this.context);
+		}
+		float scale = Math.min(width / this.documentWidth, height / this.documentHeight);
+		return AffineTransform.getScaleInstance(scale, scale);
+	}
+
+}
@@ -15,7 +15,13 @@
  */
 package com.github.kingamajick.admp.maven.transcoder;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.transcoder.image.JPEGTranscoder;
+import org.apache.batik.transcoder.image.PNGTranscoder;
 
 import com.github.kingamajick.admp.maven.util.Constants;
 
@@ -25,6 +31,20 @@ import com.github.kingamajick.admp.maven.util.Constants;
  */
 public class TranscoderFactory {
 
+	/**
+	 * Map of valid types prefixed mapped to the {@link ImageTranscoder} class. The map is unmodifiable, as it is shared by every mojo
+	 * running in a parallel build. It is kept here rather than in {@link Constants} so that the transcoder classes are only loaded once a
+	 * transcoder is needed.
+	 */
+	public static final Map<String, Class<? extends ImageTranscoder>> VALID_TYPES;
+	// Init valid types map
+	static {
+		Map<String, Class<? extends ImageTranscoder>> validTypes = new HashMap<String, Class<? extends ImageTranscoder>>();
+		validTypes.put("png", PNGTranscoder.class);
+		validTypes.put("jpg", JPEGTranscoder.class);
+		VALID_TYPES = Collections.unmodifiableMap(validTypes);
+	}
+
 	/**
 	 * Creates a instance of a {@link ImageTranscoder} for the given type.
 	 * 
@@ -35,8 +55,8 @@ public class TranscoderFactory {
 	 */
 	public ImageTranscoder create(final String type) throws TranscoderFactoryException {
 		ImageTranscoder transcoder = null;
-		if (Constants.VALID_TYPES.containsKey(type)) {
-			Class<? extends ImageTranscoder> clazz = Constants.VALID_TYPES.get(type);
+		if (VALID_TYPES.containsKey(type)) {
+			Class<? extends ImageTranscoder> clazz = VALID_TYPES.get(type);
 			try {
 				transcoder = clazz.newInstance();
 			}
@@ -52,4 +72,25 @@ public class TranscoderFactory {
 		}
 		return transcoder;
 	}
+
+	/**
+	 * Creates a instance of a {@link ImageTranscoder} for the given type, which encodes images using the given encoder profile. The profiles
+	 * other than {@link Constants#DEFAULT_ENCODER_PROFILE} only apply to <code>png</code>, for other types the profile is ignored.
+	 * 
+	 * @param type
+	 * @param profile
+	 *            one of {@link Constants#ENCODER_PROFILES}, or null for the default profile.
+	 * @return An instance of a {@link ImageTranscoder} for the given type.
+	 * @throws TranscoderFactoryException
+	 *             if it is not possible to instantiate the transcoder, no transcoder if found for that type or the profile is unknown.
+	 */
+	public ImageTranscoder create(final String type, final String profile) throws TranscoderFactoryException {
+		if (profile != null && !Constants.ENCODER_PROFILES.contains(profile)) {
+			throw new TranscoderFactoryException("Unknown encoder profile " + profile);
+		}
+		if (profile == null || Constants.DEFAULT_ENCODER_PROFILE.equals(profile) || !"png".equals(type)) {
+			return create(type);
+		}
+		return new ProfiledPNGTranscoder(profile);
+	}
 }
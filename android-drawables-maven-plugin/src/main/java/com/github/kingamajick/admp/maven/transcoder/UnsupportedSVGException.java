@@ -0,0 +1,22 @@
+package com.github.kingamajick.admp.maven.transcoder;
+
+public class UnsupportedSVGException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public UnsupportedSVGException() {
+	}
+
+	public UnsupportedSVGException(final String message) {
+		super(message);
+	}
+
+	public UnsupportedSVGException(final Throwable cause) {
+		super(cause);
+	}
+
+	public UnsupportedSVGException(final String message, final Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,687 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.transcoder;
+
+import java.awt.geom.AffineTransform;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.svg.SVGSVGElement;
+
+import com.github.kingamajick.admp.maven.util.Asserts;
+
+/**
+ * Converts SVGs to Android VectorDrawable XML. Only the subset of SVG which a VectorDrawable can represent exactly is supported:
+ * <ul>
+ * <li>paths and the basic shapes (rect, circle, ellipse, line, polyline and polygon), which are converted to paths.</li>
+ * <li>groups, and transforms on groups and shapes which can be decomposed to a translation, rotation and scale.</li>
+ * <li>solid fills and strokes, given as presentation attributes or in the style attribute, including their opacity, fill rule, line caps,
+ * line joins and miter limit.</li>
+ * </ul>
+ * Titles, descriptions, metadata, definitions and elements outside the SVG namespace are ignored. Anything else, such as gradients, text,
+ * images, clipping, masks, filters, dashes, group opacity or styling by CSS classes, can't be converted and causes an
+ * {@link UnsupportedSVGException} describing the first unsupported feature found.
+ * 
+ * @author R King
+ * 
+ */
+public class VectorDrawableConverter {
+
+	private static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+	private static final String ANDROID_NAMESPACE = "http://schemas.android.com/apk/res/android";
+	private static final String INDENT = "    ";
+
+	private static final Set<String> IGNORED_ELEMENTS = new HashSet<String>(Arrays.asList("title", "desc", "metadata", "defs"));
+	private static final Set<String> SHAPE_ELEMENTS = new HashSet<String>(Arrays.asList("path", "rect", "circle", "ellipse", "line", "polyline",
+			"polygon"));
+
+	/**
+	 * The presentation attributes which are read as style properties, any other attribute is either geometry or has no effect on rendering.
+	 */
+	private static final Set<String> PRESENTATION_ATTRIBUTES = new HashSet<String>(Arrays.asList("fill", "fill-opacity", "fill-rule", "stroke",
+			"stroke-width", "stroke-opacity", "stroke-linecap", "stroke-linejoin", "stroke-miterlimit", "stroke-dasharray", "stroke-dashoffset",
+			"opacity", "display", "visibility", "clip-path", "clip-rule", "mask", "filter", "marker", "marker-start", "marker-mid",
+			"marker-end", "color", "shape-rendering"));
+
+	/**
+	 * Style properties which don't affect how the supported elements are painted.
+	 */
+	private static final String[] IGNORED_PROPERTY_PREFIXES = { "font", "text-", "letter-spacing", "word-spacing", "writing-mode",
+			"baseline-shift", "direction", "color", "enable-background", "overflow", "shape-rendering", "image-rendering", "-inkscape",
+			"-webkit", "clip-rule" };
+
+	/**
+	 * Values of style properties which are the same as not setting the property.
+	 */
+	private static final Set<String> NEUTRAL_VALUES = new HashSet<String>(Arrays.asList("none", "normal", "auto", "inline", "visible"));
+
+	private static final Map<String, Integer> NAMED_COLORS = new HashMap<String, Integer>();
+
+	static {
+		NAMED_COLORS.put("black", 0x000000);
+		NAMED_COLORS.put("white", 0xffffff);
+		NAMED_COLORS.put("red", 0xff0000);
+		NAMED_COLORS.put("lime", 0x00ff00);
+		NAMED_COLORS.put("blue", 0x0000ff);
+		NAMED_COLORS.put("yellow", 0xffff00);
+		NAMED_COLORS.put("aqua", 0x00ffff);
+		NAMED_COLORS.put("cyan", 0x00ffff);
+		NAMED_COLORS.put("fuchsia", 0xff00ff);
+		NAMED_COLORS.put("magenta", 0xff00ff);
+		NAMED_COLORS.put("silver", 0xc0c0c0);
+		NAMED_COLORS.put("gray", 0x808080);
+		NAMED_COLORS.put("grey", 0x808080);
+		NAMED_COLORS.put("maroon", 0x800000);
+		NAMED_COLORS.put("olive", 0x808000);
+		NAMED_COLORS.put("green", 0x008000);
+		NAMED_COLORS.put("purple", 0x800080);
+		NAMED_COLORS.put("teal", 0x008080);
+		NAMED_COLORS.put("navy", 0x000080);
+		NAMED_COLORS.put("orange", 0xffa500);
+	}
+
+	private static final Pattern TRANSFORM = Pattern.compile("\\s*,?\\s*([a-zA-Z]+)\\s*\\(([^)]*)\\)");
+	private static final Pattern SEPARATOR = Pattern.compile("[\\s,]+");
+	private static final Pattern RGB = Pattern.compile("rgb\\(\\s*([^,\\s]+)\\s*,\\s*([^,\\s]+)\\s*,\\s*([^,\\s)]+)\\s*\\)");
+
+	/**
+	 * Converts the SVG document to VectorDrawable XML.
+	 * 
+	 * @param document
+	 * @return the VectorDrawable XML.
+	 * @throws UnsupportedSVGException
+	 *             if the SVG uses any feature which can't be converted.
+	 */
+	public String convert(final Document document) throws UnsupportedSVGException {
+		Asserts.notNull(document, "document");
+		Element root = document.getDocumentElement();
+		float[] viewBox = null;
+		if (root.hasAttribute("viewBox")) {
+			viewBox = parseNumbers(root.getAttribute("viewBox"));
+			if (viewBox.length != 4 || viewBox[2] <= 0 || viewBox[3] <= 0) {
+				throw new UnsupportedSVGException("The viewBox \"" + root.getAttribute("viewBox") + "\" isn't valid");
+			}
+		}
+		float width;
+		float height;
+		if (root instanceof SVGSVGElement) {
+			width = ((SVGSVGElement) root).getWidth().getBaseVal().getValue();
+			height = ((SVGSVGElement) root).getHeight().getBaseVal().getValue();
+		}
+		else {
+			width = root.hasAttribute("width") ? parseLength(root.getAttribute("width")) : (viewBox == null ? 0 : viewBox[2]);
+			height = root.hasAttribute("height") ? parseLength(root.getAttribute("height")) : (viewBox == null ? 0 : viewBox[3]);
+		}
+		if (width <= 0 || height <= 0) {
+			throw new UnsupportedSVGException("The SVG doesn't have a width and height");
+		}
+		if (viewBox == null) {
+			viewBox = new float[] { 0, 0, width, height };
+		}
+		else if (Math.abs(viewBox[2] / viewBox[3] - width / height) > 0.001f * width / height
+				&& !"none".equals(root.getAttribute("preserveAspectRatio").trim())) {
+			throw new UnsupportedSVGException("The aspect ratio of the viewBox doesn't match the width and height of the SVG");
+		}
+
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+		xml.append("<vector xmlns:android=\"").append(ANDROID_NAMESPACE).append("\"\n");
+		appendAttribute(xml, INDENT, "width", format(width) + "dp");
+		appendAttribute(xml, INDENT, "height", format(height) + "dp");
+		appendAttribute(xml, INDENT, "viewportWidth", format(viewBox[2]));
+		appendAttribute(xml, INDENT, "viewportHeight", format(viewBox[3]));
+		xml.append(">\n");
+		rejectStyleSheets(root);
+		Style style = new Style().inherit(root);
+		if (style.opacity != 1) {
+			throw new UnsupportedSVGException("Opacity on the svg element isn't supported");
+		}
+		if (viewBox[0] != 0 || viewBox[1] != 0) {
+			xml.append(INDENT).append("<group\n");
+			appendAttribute(xml, INDENT + INDENT, "translateX", format(-viewBox[0]));
+			appendAttribute(xml, INDENT + INDENT, "translateY", format(-viewBox[1]));
+			xml.append(INDENT).append(INDENT).append(">\n");
+			convertChildren(root, style, xml, INDENT + INDENT);
+			xml.append(INDENT).append("</group>\n");
+		}
+		else {
+			convertChildren(root, style, xml, INDENT);
+		}
+		xml.append("</vector>\n");
+		return xml.toString();
+	}
+
+	private void convertChildren(final Element parent, final Style parentStyle, final StringBuilder xml, final String indent)
+			throws UnsupportedSVGException {
+		for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node.getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+			Element element = (Element) node;
+			String name = element.getLocalName() == null ? element.getNodeName() : element.getLocalName();
+			if (element.getNamespaceURI() != null && !SVG_NAMESPACE.equals(element.getNamespaceURI()) || IGNORED_ELEMENTS.contains(name)) {
+				continue;
+			}
+			if (!"g".equals(name) && !SHAPE_ELEMENTS.contains(name)) {
+				throw new UnsupportedSVGException("<" + name + "> elements aren't supported");
+			}
+			Style style = parentStyle.inherit(element);
+			if (!style.display) {
+				continue;
+			}
+			if ("g".equals(name) && style.opacity != 1) {
+				throw new UnsupportedSVGException("Opacity on <g> elements isn't supported");
+			}
+			String childIndent = indent;
+			String[] transform = element.hasAttribute("transform") ? toGroupAttributes(element.getAttribute("transform")) : null;
+			if (transform != null) {
+				xml.append(indent).append("<group\n");
+				for (int i = 0; i < transform.length; i += 2) {
+					appendAttribute(xml, indent + INDENT, transform[i], transform[i + 1]);
+				}
+				xml.append(indent).append(INDENT).append(">\n");
+				childIndent = indent + INDENT;
+			}
+			if ("g".equals(name)) {
+				convertChildren(element, style, xml, childIndent);
+			}
+			else {
+				String pathData = toPathData(element, name);
+				if (style.visible && pathData.length() > 0) {
+					appendPath(xml, childIndent, pathData, style);
+				}
+			}
+			if (transform != null) {
+				xml.append(indent).append("</group>\n");
+			}
+		}
+	}
+
+	/**
+	 * Checks the element and its descendants, including those which are otherwise ignored such as definitions, don't use a style sheet. The
+	 * rules of a style sheet aren't applied by the conversion, so the shapes they style would be converted with the wrong paint.
+	 * 
+	 * @param element
+	 * @throws UnsupportedSVGException
+	 *             if there is a &lt;style&gt; element or an element with a class attribute.
+	 */
+	private void rejectStyleSheets(final Element element) throws UnsupportedSVGException {
+		if (element.getNamespaceURI() != null && !SVG_NAMESPACE.equals(element.getNamespaceURI())) {
+			return;
+		}
+		String name = element.getLocalName() == null ? element.getNodeName() : element.getLocalName();
+		if ("style".equals(name)) {
+			throw new UnsupportedSVGException("<style> elements aren't supported");
+		}
+		if (element.hasAttribute("class")) {
+			throw new UnsupportedSVGException("The class attribute on <" + name + "> elements isn't supported");
+		}
+		for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				rejectStyleSheets((Element) node);
+			}
+		}
+	}
+
+	private void appendPath(final StringBuilder xml, final String indent, final String pathData, final Style style)
+			throws UnsupportedSVGException {
+		if (style.opacity != 1 && style.fill != null && style.stroke != null) {
+			throw new UnsupportedSVGException("Opacity on shapes with both a fill and a stroke isn't supported");
+		}
+		String attributeIndent = indent + INDENT;
+		xml.append(indent).append("<path\n");
+		appendAttribute(xml, attributeIndent, "pathData", pathData);
+		if (style.fill != null) {
+			appendAttribute(xml, attributeIndent, "fillColor", formatColor(style.fill, style.fillOpacity * style.opacity));
+			if (style.evenOdd) {
+				appendAttribute(xml, attributeIndent, "fillType", "evenOdd");
+			}
+		}
+		if (style.stroke != null && style.strokeWidth > 0) {
+			appendAttribute(xml, attributeIndent, "strokeColor", formatColor(style.stroke, style.strokeOpacity * style.opacity));
+			appendAttribute(xml, attributeIndent, "strokeWidth", format(style.strokeWidth));
+			if (!"butt".equals(style.lineCap)) {
+				appendAttribute(xml, attributeIndent, "strokeLineCap", style.lineCap);
+			}
+			if (!"miter".equals(style.lineJoin)) {
+				appendAttribute(xml, attributeIndent, "strokeLineJoin", style.lineJoin);
+			}
+			if (style.miterLimit != 4) {
+				appendAttribute(xml, attributeIndent, "strokeMiterLimit", format(style.miterLimit));
+			}
+		}
+		xml.append(attributeIndent).append("/>\n");
+	}
+
+	/**
+	 * Converts a path or basic shape to path data.
+	 * 
+	 * @param element
+	 * @param name
+	 * @return the path data, empty if the shape isn't rendered.
+	 * @throws UnsupportedSVGException
+	 */
+	private String toPathData(final Element element, final String name) throws UnsupportedSVGException {
+		StringBuilder pathData = new StringBuilder();
+		if ("path".equals(name)) {
+			pathData.append(element.getAttribute("d").trim().replaceAll("\\s+", " "));
+		}
+		else if ("rect".equals(name)) {
+			float x = getLength(element, "x");
+			float y = getLength(element, "y");
+			float w = getLength(element, "width");
+			float h = getLength(element, "height");
+			if (w <= 0 || h <= 0) {
+				return "";
+			}
+			// A missing radius takes the other radius, then each radius is clamped to half of its own side
+			float rx = getLength(element, element.hasAttribute("rx") ? "rx" : "ry");
+			float ry = getLength(element, element.hasAttribute("ry") ? "ry" : "rx");
+			rx = Math.min(w / 2, rx);
+			ry = Math.min(h / 2, ry);
+			if (rx <= 0 || ry <= 0) {
+				pathData.append("M").append(point(x, y)).append(" H").append(format(x + w)).append(" V").append(format(y + h)).append(" H")
+						.append(format(x)).append(" Z");
+			}
+			else {
+				String arc = " A" + point(rx, ry) + " 0 0,1 ";
+				pathData.append("M").append(point(x + rx, y)).append(" H").append(format(x + w - rx));
+				pathData.append(arc).append(point(x + w, y + ry)).append(" V").append(format(y + h - ry));
+				pathData.append(arc).append(point(x + w - rx, y + h)).append(" H").append(format(x + rx));
+				pathData.append(arc).append(point(x, y + h - ry)).append(" V").append(format(y + ry));
+				pathData.append(arc).append(point(x + rx, y)).append(" Z");
+			}
+		}
+		else if ("circle".equals(name) || "ellipse".equals(name)) {
+			float cx = getLength(element, "cx");
+			float cy = getLength(element, "cy");
+			float rx = getLength(element, "circle".equals(name) ? "r" : "rx");
+			float ry = getLength(element, "circle".equals(name) ? "r" : "ry");
+			if (rx <= 0 || ry <= 0) {
+				return "";
+			}
+			String arc = " A" + point(rx, ry) + " 0 1,0 ";
+			pathData.append("M").append(point(cx - rx, cy));
+			pathData.append(arc).append(point(cx + rx, cy));
+			pathData.append(arc).append(point(cx - rx, cy)).append(" Z");
+		}
+		else if ("line".equals(name)) {
+			pathData.append("M").append(point(getLength(element, "x1"), getLength(element, "y1")));
+			pathData.append(" L").append(point(getLength(element, "x2"), getLength(element, "y2")));
+		}
+		else {
+			float[] points = parseNumbers(element.getAttribute("points"));
+			for (int i = 0; i + 1 < points.length; i += 2) {
+				pathData.append(i == 0 ? "M" : " L").append(point(points[i], points[i + 1]));
+			}
+			if (pathData.length() > 0 && "polygon".equals(name)) {
+				pathData.append(" Z");
+			}
+		}
+		return pathData.toString();
+	}
+
+	/**
+	 * Decomposes the transform to the attributes of a VectorDrawable group, which applies a scale, then a rotation and then a translation.
+	 * 
+	 * @param value
+	 * @return the names and values of the group attributes, or null if the transform is the identity.
+	 * @throws UnsupportedSVGException
+	 *             if the transform includes a skew.
+	 */
+	private String[] toGroupAttributes(final String value) throws UnsupportedSVGException {
+		AffineTransform transform = parseTransform(value);
+		if (transform.isIdentity()) {
+			return null;
+		}
+		double a = transform.getScaleX();
+		double b = transform.getShearY();
+		double c = transform.getShearX();
+		double d = transform.getScaleY();
+		if (Math.abs(a * c + b * d) > 1e-6) {
+			throw new UnsupportedSVGException("The transform \"" + value + "\" includes a skew, which isn't supported");
+		}
+		double rotation = Math.atan2(b, a);
+		double scaleX = Math.sqrt(a * a + b * b);
+		double scaleY = d * Math.cos(rotation) - c * Math.sin(rotation);
+		List<String> attributes = new ArrayList<String>();
+		if (transform.getTranslateX() != 0) {
+			attributes.add("translateX");
+			attributes.add(format(transform.getTranslateX()));
+		}
+		if (transform.getTranslateY() != 0) {
+			attributes.add("translateY");
+			attributes.add(format(transform.getTranslateY()));
+		}
+		if (Math.abs(rotation) > 1e-9) {
+			attributes.add("rotation");
+			attributes.add(format(Math.toDegrees(rotation)));
+		}
+		if (Math.abs(scaleX - 1) > 1e-9) {
+			attributes.add("scaleX");
+			attributes.add(format(scaleX));
+		}
+		if (Math.abs(scaleY - 1) > 1e-9) {
+			attributes.add("scaleY");
+			attributes.add(format(scaleY));
+		}
+		return attributes.toArray(new String[attributes.size()]);
+	}
+
+	private AffineTransform parseTransform(final String value) throws UnsupportedSVGException {
+		AffineTransform transform = new AffineTransform();
+		Matcher matcher = TRANSFORM.matcher(value);
+		int end = 0;
+		while (matcher.find() && matcher.start() == end) {
+			end = matcher.end();
+			String type = matcher.group(1);
+			float[] args = parseNumbers(matcher.group(2));
+			if ("matrix".equals(type) && args.length == 6) {
+				transform.concatenate(new AffineTransform(args[0], args[1], args[2], args[3], args[4], args[5]));
+			}
+			else if ("translate".equals(type) && (args.length == 1 || args.length == 2)) {
+				transform.translate(args[0], args.length == 2 ? args[1] : 0);
+			}
+			else if ("scale".equals(type) && (args.length == 1 || args.length == 2)) {
+				transform.scale(args[0], args.length == 2 ? args[1] : args[0]);
+			}
+			else if ("rotate".equals(type) && (args.length == 1 || args.length == 3)) {
+				transform.rotate(Math.toRadians(args[0]), args.length == 3 ? args[1] : 0, args.length == 3 ? args[2] : 0);
+			}
+			else if ("skewX".equals(type) && args.length == 1) {
+				transform.shear(Math.tan(Math.toRadians(args[0])), 0);
+			}
+			else if ("skewY".equals(type) && args.length == 1) {
+				transform.shear(0, Math.tan(Math.toRadians(args[0])));
+			}
+			else {
+				throw new UnsupportedSVGException("The transform \"" + value + "\" isn't valid");
+			}
+		}
+		if (value.substring(end).trim().length() > 0) {
+			throw new UnsupportedSVGException("The transform \"" + value + "\" isn't valid");
+		}
+		return transform;
+	}
+
+	private static float getLength(final Element element, final String name) throws UnsupportedSVGException {
+		return element.hasAttribute(name) ? parseLength(element.getAttribute(name)) : 0;
+	}
+
+	/**
+	 * Parses a length in user units, or pixels which are the same as user units. Any other unit isn't supported.
+	 * 
+	 * @param value
+	 * @return the length.
+	 * @throws UnsupportedSVGException
+	 */
+	private static float parseLength(final String value) throws UnsupportedSVGException {
+		String number = value.trim();
+		if (number.endsWith("px")) {
+			number = number.substring(0, number.length() - 2).trim();
+		}
+		try {
+			return Float.parseFloat(number);
+		}
+		catch (NumberFormatException e) {
+			throw new UnsupportedSVGException("The length \"" + value + "\" isn't supported", e);
+		}
+	}
+
+	private static float[] parseNumbers(final String value) throws UnsupportedSVGException {
+		String trimmed = value.trim();
+		if (trimmed.length() == 0) {
+			return new float[0];
+		}
+		String[] numbers = SEPARATOR.split(trimmed);
+		float[] values = new float[numbers.length];
+		for (int i = 0; i < numbers.length; i++) {
+			try {
+				values[i] = Float.parseFloat(numbers[i]);
+			}
+			catch (NumberFormatException e) {
+				throw new UnsupportedSVGException("The list of numbers \"" + value + "\" isn't valid", e);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Parses a solid color.
+	 * 
+	 * @param value
+	 * @return the RGB color, or null if the value is <code>none</code>.
+	 * @throws UnsupportedSVGException
+	 *             if the value is a gradient or pattern, or isn't a supported color.
+	 */
+	private static Integer parsePaint(final String value) throws UnsupportedSVGException {
+		String paint = value.trim().toLowerCase(Locale.ENGLISH);
+		if ("none".equals(paint)) {
+			return null;
+		}
+		if (paint.startsWith("url(")) {
+			throw new UnsupportedSVGException("Gradients and patterns (" + value + ") aren't supported");
+		}
+		try {
+			if (paint.startsWith("#") && paint.length() == 7) {
+				return Integer.parseInt(paint.substring(1), 16);
+			}
+			if (paint.startsWith("#") && paint.length() == 4) {
+				int r = Integer.parseInt(paint.substring(1, 2), 16);
+				int g = Integer.parseInt(paint.substring(2, 3), 16);
+				int b = Integer.parseInt(paint.substring(3, 4), 16);
+				return r * 0x110000 | g * 0x1100 | b * 0x11;
+			}
+			Matcher rgb = RGB.matcher(paint);
+			if (rgb.matches()) {
+				return parseComponent(rgb.group(1)) << 16 | parseComponent(rgb.group(2)) << 8 | parseComponent(rgb.group(3));
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new UnsupportedSVGException("The color \"" + value + "\" isn't valid", e);
+		}
+		Integer color = NAMED_COLORS.get(paint);
+		if (color == null) {
+			throw new UnsupportedSVGException("The color \"" + value + "\" isn't supported");
+		}
+		return color;
+	}
+
+	private static int parseComponent(final String value) {
+		float component = value.endsWith("%") ? Float.parseFloat(value.substring(0, value.length() - 1)) * 2.55f : Float.parseFloat(value);
+		return Math.max(0, Math.min(255, Math.round(component)));
+	}
+
+	private static float parseOpacity(final String value) throws UnsupportedSVGException {
+		try {
+			return Math.max(0, Math.min(1, Float.parseFloat(value.trim())));
+		}
+		catch (NumberFormatException e) {
+			throw new UnsupportedSVGException("The opacity \"" + value + "\" isn't valid", e);
+		}
+	}
+
+	private static String formatColor(final int rgb, final float opacity) {
+		int alpha = Math.round(opacity * 255);
+		if (alpha >= 255) {
+			return String.format("#%06X", rgb & 0xffffff);
+		}
+		return String.format("#%02X%06X", alpha, rgb & 0xffffff);
+	}
+
+	private static String point(final float x, final float y) {
+		return format(x) + "," + format(y);
+	}
+
+	/**
+	 * Formats the number with at most 7 significant digits and without trailing zeros.
+	 * 
+	 * @param value
+	 * @return the formatted number.
+	 */
+	private static String format(final double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e9) {
+			return Long.toString((long) value);
+		}
+		return new BigDecimal(value).round(new MathContext(7)).stripTrailingZeros().toPlainString();
+	}
+
+	private static void appendAttribute(final StringBuilder xml, final String indent, final String name, final String value) {
+		xml.append(indent).append("android:").append(name).append("=\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				xml.append("&amp;");
+				break;
+			case '<':
+				xml.append("&lt;");
+				break;
+			case '"':
+				xml.append("&quot;");
+				break;
+			default:
+				xml.append(c);
+			}
+		}
+		xml.append("\"\n");
+	}
+
+	/**
+	 * The style of an element. Every property is inherited from the parent element, except display and opacity.
+	 */
+	private static final class Style {
+
+		Integer fill = 0x000000;
+		float fillOpacity = 1;
+		boolean evenOdd;
+		Integer stroke;
+		float strokeWidth = 1;
+		float strokeOpacity = 1;
+		String lineCap = "butt";
+		String lineJoin = "miter";
+		float miterLimit = 4;
+		boolean visible = true;
+		boolean display = true;
+		float opacity = 1;
+
+		/**
+		 * Creates the style of the element, from this style and the element's presentation attributes and style attribute, in that order.
+		 * 
+		 * @param element
+		 * @return the style of the element.
+		 * @throws UnsupportedSVGException
+		 *             if the element uses a style property which isn't supported.
+		 */
+		Style inherit(final Element element) throws UnsupportedSVGException {
+			Style style = new Style();
+			style.fill = this.fill;
+			style.fillOpacity = this.fillOpacity;
+			style.evenOdd = this.evenOdd;
+			style.stroke = this.stroke;
+			style.strokeWidth = this.strokeWidth;
+			style.strokeOpacity = this.strokeOpacity;
+			style.lineCap = this.lineCap;
+			style.lineJoin = this.lineJoin;
+			style.miterLimit = this.miterLimit;
+			style.visible = this.visible;
+			NamedNodeMap attributes = element.getAttributes();
+			for (int i = 0; i < attributes.getLength(); i++) {
+				Node attribute = attributes.item(i);
+				if (attribute.getNamespaceURI() == null && PRESENTATION_ATTRIBUTES.contains(attribute.getNodeName())) {
+					style.apply(attribute.getNodeName(), attribute.getNodeValue());
+				}
+			}
+			for (String declaration : element.getAttribute("style").split(";")) {
+				int colon = declaration.indexOf(':');
+				if (colon > 0) {
+					style.apply(declaration.substring(0, colon).trim(), declaration.substring(colon + 1));
+				}
+			}
+			return style;
+		}
+
+		private void apply(final String name, final String rawValue) throws UnsupportedSVGException {
+			String value = rawValue.trim();
+			if ("inherit".equals(value)) {
+				return;
+			}
+			if ("fill".equals(name)) {
+				this.fill = parsePaint(value);
+			}
+			else if ("fill-opacity".equals(name)) {
+				this.fillOpacity = parseOpacity(value);
+			}
+			else if ("fill-rule".equals(name)) {
+				this.evenOdd = "evenodd".equals(value);
+			}
+			else if ("stroke".equals(name)) {
+				this.stroke = parsePaint(value);
+			}
+			else if ("stroke-width".equals(name)) {
+				this.strokeWidth = parseLength(value);
+			}
+			else if ("stroke-opacity".equals(name)) {
+				this.strokeOpacity = parseOpacity(value);
+			}
+			else if ("stroke-linecap".equals(name) && ("butt".equals(value) || "round".equals(value) || "square".equals(value))) {
+				this.lineCap = value;
+			}
+			else if ("stroke-linejoin".equals(name) && ("miter".equals(value) || "round".equals(value) || "bevel".equals(value))) {
+				this.lineJoin = value;
+			}
+			else if ("stroke-miterlimit".equals(name)) {
+				this.miterLimit = parseLength(value);
+			}
+			else if ("opacity".equals(name)) {
+				this.opacity = parseOpacity(value);
+			}
+			else if ("display".equals(name)) {
+				this.display = !"none".equals(value);
+			}
+			else if ("visibility".equals(name)) {
+				this.visible = "visible".equals(value);
+			}
+			else if (!NEUTRAL_VALUES.contains(value) && !isIgnored(name)) {
+				throw new UnsupportedSVGException("The style property " + name + ":" + value + " isn't supported");
+			}
+		}
+
+		private static boolean isIgnored(final String name) {
+			for (String prefix : IGNORED_PROPERTY_PREFIXES) {
+				if (name.startsWith(prefix)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Helper class for generating checksums of file contents.
+ * 
+ * @author R King
+ * 
+ */
+public class Checksums {
+
+	private static final String ALGORITHM = "SHA-1";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Generates a SHA-1 checksum of the contents of the file.
+	 * 
+	 * @param file
+	 * @return the checksum as a lower case hex string.
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public static String sha1(final File file) throws IOException {
+		Asserts.notNull(file, "file");
+
+		MessageDigest digest = newDigest();
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		finally {
+			is.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Generates a CRC-32 checksum of the contents of the file, as recorded for each entry of a zip file.
+	 * 
+	 * @param file
+	 * @return the checksum.
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public static long crc32(final File file) throws IOException {
+		Asserts.notNull(file, "file");
+
+		CRC32 crc = new CRC32();
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		finally {
+			is.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Generates a SHA-1 checksum of the given strings. Each string is encoded as UTF-8 and followed by a zero byte, so the boundaries
+	 * between the strings are part of the checksum.
+	 * 
+	 * @param values
+	 * @return the checksum as a lower case hex string.
+	 */
+	public static String sha1(final String... values) {
+		MessageDigest digest = newDigest();
+		for (String value : values) {
+			try {
+				digest.update(String.valueOf(value).getBytes("UTF-8"));
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException("UTF-8 is not supported", e);
+			}
+			digest.update((byte) 0);
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(ALGORITHM + " is not supported", e);
+		}
+	}
+
+	private static String toHex(final byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+}
@@ -16,13 +16,7 @@
 package com.github.kingamajick.admp.maven.util;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-
-import org.apache.batik.transcoder.image.ImageTranscoder;
-import org.apache.batik.transcoder.image.JPEGTranscoder;
-import org.apache.batik.transcoder.image.PNGTranscoder;
 
 /**
  * @author R King
@@ -56,13 +50,64 @@ public class Constants {
 	public static final String SVG_FILE_TYPE = ".svg";
 
 	/**
-	 * Map of valid types prefixed mapped to the {@link ImageTranscoder} class.
+	 * The encoder profile which uses the transcoder's own encoder.
+	 */
+	public static final String DEFAULT_ENCODER_PROFILE = "default";
+
+	/**
+	 * The encoder profile for quick local builds.
+	 */
+	public static final String FAST_ENCODER_PROFILE = "fast";
+
+	/**
+	 * The encoder profile producing the smallest images.
+	 */
+	public static final String RELEASE_ENCODER_PROFILE = "release";
+
+	/**
+	 * List of the available encoder profiles, the profiles other than {@link #DEFAULT_ENCODER_PROFILE} only apply to <code>png</code>.
+	 */
+	public static final List<String> ENCODER_PROFILES = Arrays.asList(DEFAULT_ENCODER_PROFILE, FAST_ENCODER_PROFILE, RELEASE_ENCODER_PROFILE);
+
+	/**
+	 * The density strategy which renders every density from the SVG.
+	 */
+	public static final String DENSITY_STRATEGY_RENDER = "render";
+
+	/**
+	 * The density strategy which renders the largest density from the SVG, and downsamples it for the other densities.
+	 */
+	public static final String DENSITY_STRATEGY_DOWNSAMPLE = "downsample";
+
+	/**
+	 * List of the available density strategies.
+	 */
+	public static final List<String> DENSITY_STRATEGIES = Arrays.asList(DENSITY_STRATEGY_RENDER, DENSITY_STRATEGY_DOWNSAMPLE);
+
+	/**
+	 * The conflict policy which warns when drawable artifacts provide different drawables at the same path, the drawable from the last
+	 * artifact is unpacked.
+	 */
+	public static final String CONFLICT_POLICY_WARN = "warn";
+
+	/**
+	 * The conflict policy which fails the build when drawable artifacts provide different drawables at the same path.
+	 */
+	public static final String CONFLICT_POLICY_FAIL = "fail";
+
+	/**
+	 * List of the available conflict policies.
+	 */
+	public static final List<String> CONFLICT_POLICIES = Arrays.asList(CONFLICT_POLICY_WARN, CONFLICT_POLICY_FAIL);
+
+	/**
+	 * The density independent drawable directory SVGs are converted to VectorDrawables in.
+	 */
+	public static final String VECTOR_DRAWABLE_DIR = "drawable";
+
+	/**
+	 * The entry of an 'android-drawables' artifact listing the density, size and CRC-32 of each drawable it contains.
 	 */
-	public static final Map<String, Class<? extends ImageTranscoder>> VALID_TYPES = new HashMap<String, Class<? extends ImageTranscoder>>();
-	// Init valid types map
-	static {
-		VALID_TYPES.put("png", PNGTranscoder.class);
-		VALID_TYPES.put("jpg", JPEGTranscoder.class);
-	}
+	public static final String DRAWABLES_INDEX = "META-INF/android-drawables.index";
 
 }
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helper class for reading the resource directory and density of drawables from their paths within an 'android-drawables' artifact.
+ * 
+ * @author R King
+ * 
+ */
+public class DrawablePaths {
+
+	/**
+	 * Gets the density of a resource directory, which is the qualifier of its name ending in <code>dpi</code>, so
+	 * <code>drawable-hdpi-v11</code> has the density <code>hdpi</code>.
+	 * 
+	 * @param dirName
+	 * @return the density, or null if the directory has no density qualifier.
+	 */
+	public static String getDensity(final String dirName) {
+		Asserts.notNull(dirName, "dirName");
+
+		List<String> qualifiers = Arrays.asList(dirName.split("-"));
+		for (String qualifier : qualifiers.subList(1, qualifiers.size())) {
+			if (qualifier.endsWith("dpi")) {
+				return qualifier;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param path
+	 *            a path separated by <code>/</code>, such as the name of a zip entry.
+	 * @return the name of the directory containing the path, or an empty string if it isn't in a directory.
+	 */
+	public static String getDirectoryName(final String path) {
+		Asserts.notNull(path, "path");
+
+		int end = path.lastIndexOf('/');
+		return end < 0 ? "" : path.substring(path.lastIndexOf('/', end - 1) + 1, end);
+	}
+
+}
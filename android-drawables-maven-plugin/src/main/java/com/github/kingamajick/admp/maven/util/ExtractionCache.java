@@ -0,0 +1,227 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FilenameUtils;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.io.RawInputStreamFacade;
+
+/**
+ * A cache of the images extracted from drawable artifacts, kept next to each artifact in the local repository so that every project on
+ * the machine can populate its unpack location from it rather than extracting the artifact again. The images of
+ * <code>${artifact}.zip</code> are extracted to <code>${artifact}.zip.extracted</code>.
+ * <p>
+ * A marker file recording the size and last modified time of the artifact is written once every image has been extracted, an extraction
+ * without a marker, or whose marker doesn't match the artifact, is discarded and extracted again. Extraction holds a lock on a lock file
+ * in the extraction directory, so builds sharing the local repository never extract the same artifact at the same time.
+ * 
+ * @author R King
+ * 
+ */
+public class ExtractionCache {
+
+	static final String DIRECTORY_SUFFIX = ".extracted";
+	static final String COMPLETE_MARKER = ".complete";
+	static final String LOCK_FILE = ".lock";
+
+	private static final String SIZE = "size";
+	private static final String LAST_MODIFIED = "lastModified";
+
+	/**
+	 * File locks are held by the JVM rather than a thread, so threads of the same build extracting the same artifact are serialised with a
+	 * monitor per extraction directory.
+	 */
+	private static final ConcurrentMap<String, Object> MONITORS = new ConcurrentHashMap<String, Object>();
+
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * @param archive
+	 * @return the directory the images of the archive are extracted to.
+	 */
+	public static File getDirectory(final File archive) {
+		Asserts.notNull(archive, "archive");
+
+		return new File(archive.getParentFile(), archive.getName() + DIRECTORY_SUFFIX);
+	}
+
+	/**
+	 * Checks if the images of the archive have been completely extracted to the directory.
+	 * 
+	 * @param archive
+	 * @param directory
+	 * @return
+	 */
+	static boolean isComplete(final File archive, final File directory) {
+		File marker = new File(directory, COMPLETE_MARKER);
+		if (!marker.isFile()) {
+			return false;
+		}
+		Properties properties = new Properties();
+		try {
+			InputStream is = new FileInputStream(marker);
+			try {
+				properties.load(is);
+			}
+			finally {
+				is.close();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+		return String.valueOf(archive.length()).equals(properties.getProperty(SIZE))
+				&& String.valueOf(archive.lastModified()).equals(properties.getProperty(LAST_MODIFIED));
+	}
+
+	/**
+	 * Extracts the images of the archive, unless they have already been extracted.
+	 * 
+	 * @param archive
+	 * @return the directory the images were extracted to.
+	 * @throws IOException
+	 *             if the images couldn't be extracted, for example because the local repository isn't writable.
+	 */
+	public File extract(final File archive) throws IOException {
+		Asserts.notNull(archive, "archive");
+
+		File directory = getDirectory(archive);
+		if (isComplete(archive, directory)) {
+			this.hits.incrementAndGet();
+			return directory;
+		}
+		Object monitor = new Object();
+		Object existing = MONITORS.putIfAbsent(directory.getAbsolutePath(), monitor);
+		synchronized (existing != null ? existing : monitor) {
+			if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+				throw new IOException("Unable to make directory " + directory.getAbsolutePath());
+			}
+			RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+			try {
+				FileLock lock = lockFile.getChannel().lock();
+				try {
+					// Another build may have extracted the archive while the lock was awaited.
+					if (isComplete(archive, directory)) {
+						this.hits.incrementAndGet();
+					}
+					else {
+						this.misses.incrementAndGet();
+						extractImages(archive, directory);
+					}
+				}
+				finally {
+					lock.release();
+				}
+			}
+			finally {
+				lockFile.close();
+			}
+		}
+		return directory;
+	}
+
+	/**
+	 * Discards anything previously extracted to the directory, extracts the images of the archive and marks the extraction complete.
+	 * 
+	 * @param archive
+	 * @param directory
+	 * @throws IOException
+	 */
+	private void extractImages(final File archive, final File directory) throws IOException {
+		for (File file : directory.listFiles()) {
+			if (!file.getName().equals(LOCK_FILE)) {
+				FileUtils.forceDelete(file);
+			}
+		}
+		String root = directory.getCanonicalPath() + File.separator;
+		ZipFile zipFile = new ZipFile(archive);
+		try {
+			for (ZipEntry zipEntry : Collections.list(zipFile.entries())) {
+				if (zipEntry.isDirectory() || !Constants.IMAGE_TYPES.contains(FilenameUtils.getExtension(zipEntry.getName()))) {
+					continue;
+				}
+				File destination = new File(directory, zipEntry.getName());
+				if (!destination.getCanonicalPath().startsWith(root)) {
+					throw new IOException("Entry " + zipEntry.getName() + " of " + archive + " is outside of the extraction directory");
+				}
+				InputStream is = zipFile.getInputStream(zipEntry);
+				try {
+					FileUtils.copyStreamToFile(new RawInputStreamFacade(is), destination);
+				}
+				finally {
+					is.close();
+				}
+			}
+		}
+		finally {
+			zipFile.close();
+		}
+
+		Properties properties = new Properties();
+		properties.setProperty(SIZE, String.valueOf(archive.length()));
+		properties.setProperty(LAST_MODIFIED, String.valueOf(archive.lastModified()));
+		File temp = File.createTempFile(COMPLETE_MARKER, null, directory);
+		try {
+			OutputStream os = new FileOutputStream(temp);
+			try {
+				properties.store(os, "Extracted from " + archive.getName());
+			}
+			finally {
+				os.close();
+			}
+			if (!temp.renameTo(new File(directory, COMPLETE_MARKER))) {
+				throw new IOException("Unable to mark " + directory.getAbsolutePath() + " as complete");
+			}
+		}
+		finally {
+			if (temp.exists()) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of archives which had already been extracted.
+	 */
+	public int getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return the number of archives extracted.
+	 */
+	public int getMisses() {
+		return this.misses.get();
+	}
+
+}
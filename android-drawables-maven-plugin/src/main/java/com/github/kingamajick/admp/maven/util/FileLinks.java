@@ -0,0 +1,57 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Helper class for creating hard links. Hard links are created with <code>java.nio.file.Files</code>, which is looked up reflectively as
+ * the plugin is built for Java 6.
+ * 
+ * @author R King
+ * 
+ */
+public class FileLinks {
+
+	/**
+	 * Creates a hard link from the destination to the source. The destination must not exist.
+	 * 
+	 * @param source
+	 * @param destination
+	 * @throws IOException
+	 *             if the link couldn't be created, for example because the file system or the JVM running the build doesn't support it.
+	 */
+	public static void createLink(final File source, final File destination) throws IOException {
+		Asserts.notNull(source, "source");
+		Asserts.notNull(destination, "destination");
+
+		try {
+			Method toPath = File.class.getMethod("toPath");
+			Class<?> path = Class.forName("java.nio.file.Path");
+			Class.forName("java.nio.file.Files").getMethod("createLink", path, path).invoke(null, toPath.invoke(destination), toPath.invoke(source));
+		}
+		catch (InvocationTargetException e) {
+			throw new IOException("Unable to link " + destination + " to " + source + ": " + e.getCause(), e.getCause());
+		}
+		catch (Exception e) {
+			throw new IOException("Unable to link " + destination + " to " + source + ": " + e, e);
+		}
+	}
+
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * A persistent cache of rasterized images which can be shared between projects. Entries are stored as
+ * <code>${directory}/${key[0..2]}/${key}.${type}</code>, where the key is a checksum of everything that affects the rasterized output.
+ * <p>
+ * The last modified time of an entry is updated each time it is fetched, so that {@link #evict()} can remove the least recently used
+ * entries once the cache grows beyond its maximum size. Entries are written to a temporary file and renamed into place, so builds sharing
+ * the cache never see a partially written entry.
+ * 
+ * @author R King
+ * 
+ */
+public class RasterizeCache {
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final File directory;
+	private final long maxSize;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * @param directory
+	 *            the root directory of the cache.
+	 * @param maxSize
+	 *            the size in bytes the cache is reduced to by {@link #evict()}.
+	 */
+	public RasterizeCache(final File directory, final long maxSize) {
+		Asserts.notNull(directory, "directory");
+
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Copies the entry with the given key to the destination, if it exists.
+	 * 
+	 * @param key
+	 * @param type
+	 * @param destination
+	 * @return true if the entry was found and copied to the destination.
+	 */
+	public boolean fetch(final String key, final String type, final File destination) {
+		File entry = getEntry(key, type);
+		if (entry.isFile()) {
+			try {
+				FileUtils.copyFile(entry, destination);
+				entry.setLastModified(System.currentTimeMillis());
+				this.hits.incrementAndGet();
+				return true;
+			}
+			catch (IOException e) {
+				// The entry may have been evicted by another build while it was being copied, treat it as a miss.
+			}
+		}
+		this.misses.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Stores the source file in the cache under the given key.
+	 * 
+	 * @param key
+	 * @param type
+	 * @param source
+	 * @throws IOException
+	 *             if the entry could not be written.
+	 */
+	public void store(final String key, final String type, final File source) throws IOException {
+		File entry = getEntry(key, type);
+		File entryDir = entry.getParentFile();
+		if (!entryDir.exists() && !entryDir.mkdirs() && !entryDir.exists()) {
+			throw new IOException("Unable to make directory " + entryDir.getAbsolutePath());
+		}
+		File temp = File.createTempFile(key, TEMP_SUFFIX, entryDir);
+		try {
+			FileUtils.copyFile(source, temp);
+			if (!temp.renameTo(entry) && !entry.isFile()) {
+				throw new IOException("Unable to store cache entry " + entry.getAbsolutePath());
+			}
+		}
+		finally {
+			if (temp.exists()) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the total size of the cache is no larger than the maximum size.
+	 * 
+	 * @return the number of entries deleted.
+	 */
+	public int evict() {
+		List<CacheEntry> entries = new ArrayList<CacheEntry>();
+		long size = 0;
+		File[] entryDirs = this.directory.listFiles();
+		if (entryDirs == null) {
+			return 0;
+		}
+		for (File entryDir : entryDirs) {
+			File[] files = entryDir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					if (file.getName().endsWith(TEMP_SUFFIX)) {
+						continue;
+					}
+					CacheEntry entry = new CacheEntry(file);
+					entries.add(entry);
+					size += entry.length;
+				}
+			}
+		}
+		if (size <= this.maxSize) {
+			return 0;
+		}
+		Collections.sort(entries);
+		int evicted = 0;
+		for (CacheEntry entry : entries) {
+			if (size <= this.maxSize) {
+				break;
+			}
+			if (entry.file.delete()) {
+				size -= entry.length;
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * @return the number of entries fetched from the cache.
+	 */
+	public int getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return the number of entries not found in the cache.
+	 */
+	public int getMisses() {
+		return this.misses.get();
+	}
+
+	private File getEntry(final String key, final String type) {
+		return new File(new File(this.directory, key.substring(0, 2)), key + "." + type);
+	}
+
+	/**
+	 * Snapshot of a cache entry's size and last modified time, ordered from least to most recently used.
+	 */
+	private static final class CacheEntry implements Comparable<CacheEntry> {
+
+		private final File file;
+		private final long length;
+		private final long lastModified;
+
+		CacheEntry(final File file) {
+			this.file = file;
+			this.length = file.length();
+			this.lastModified = file.lastModified();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		public int compareTo(final CacheEntry o) {
+			return this.lastModified < o.lastModified ? -1 : (this.lastModified == o.lastModified ? 0 : 1);
+		}
+	}
+
+}
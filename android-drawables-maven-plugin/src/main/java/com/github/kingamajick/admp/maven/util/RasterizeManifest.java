@@ -0,0 +1,194 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Records the inputs and outputs of a rasterize run, allowing the next run to skip any SVGs which haven't changed and to remove the
+ * outputs of any SVGs which have since been deleted.
+ * <p>
+ * Sources are recorded as <code>${length},${lastModified},${checksum}</code>, if the length and last modified time of a source are
+ * unchanged the recorded checksum is reused rather than reading the file again. Outputs are recorded by their path relative to the target
+ * directory along with their length.
+ * 
+ * @author R King
+ * 
+ */
+public class RasterizeManifest {
+
+	private static final String SETTINGS_KEY = "settings";
+	private static final String SOURCE_PREFIX = "source.";
+	private static final String OUTPUT_PREFIX = "output.";
+
+	private final Properties properties = new Properties();
+
+	/**
+	 * Loads the manifest from the given file. If the file doesn't exist or can't be read an empty manifest is returned, which will cause
+	 * every SVG to be rasterized.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static RasterizeManifest load(final File file) {
+		Asserts.notNull(file, "file");
+
+		RasterizeManifest manifest = new RasterizeManifest();
+		if (file.isFile()) {
+			try {
+				InputStream is = new FileInputStream(file);
+				try {
+					manifest.properties.load(is);
+				}
+				finally {
+					is.close();
+				}
+			}
+			catch (IOException e) {
+				manifest.properties.clear();
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Stores the manifest to the given file, creating any parent directories required.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void store(final File file) throws IOException {
+		Asserts.notNull(file, "file");
+
+		File parent = file.getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Unable to make directory " + parent.getAbsolutePath());
+		}
+		OutputStream os = new FileOutputStream(file);
+		try {
+			this.properties.store(os, "android-drawables-maven-plugin rasterize manifest");
+		}
+		finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * @param settings
+	 *            a description of everything other than the SVG itself that affects the rasterized output.
+	 */
+	public void setSettings(final String settings) {
+		this.properties.setProperty(SETTINGS_KEY, settings);
+	}
+
+	/**
+	 * @return the settings recorded by {@link #setSettings(String)}, or null if none were recorded.
+	 */
+	public String getSettings() {
+		return this.properties.getProperty(SETTINGS_KEY);
+	}
+
+	/**
+	 * Returns the checksum of the source. If this manifest has a record of the source with the length and last modified time cached when
+	 * it was scanned, the recorded checksum is returned, otherwise the checksum is generated from the contents of the file.
+	 * 
+	 * @param name
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	public String checksum(final String name, final SourceFile source) throws IOException {
+		String[] record = getSourceRecord(name);
+		if (record != null && record[0].equals(String.valueOf(source.getLength())) && record[1].equals(String.valueOf(source.getLastModified()))) {
+			return record[2];
+		}
+		return Checksums.sha1(source.getFile());
+	}
+
+	/**
+	 * @param name
+	 * @return the recorded checksum of the source with the given name, or null if there is no record of it.
+	 */
+	public String getSourceChecksum(final String name) {
+		String[] record = getSourceRecord(name);
+		return record == null ? null : record[2];
+	}
+
+	/**
+	 * Records the source with the given name, along with the length and last modified time cached when it was scanned.
+	 * 
+	 * @param name
+	 * @param source
+	 * @param checksum
+	 */
+	public void addSource(final String name, final SourceFile source, final String checksum) {
+		this.properties.setProperty(SOURCE_PREFIX + name, source.getLength() + "," + source.getLastModified() + "," + checksum);
+	}
+
+	/**
+	 * @return the paths, relative to the target directory, of all the outputs recorded.
+	 */
+	public Set<String> getOutputs() {
+		Set<String> outputs = new HashSet<String>();
+		for (String key : this.properties.stringPropertyNames()) {
+			if (key.startsWith(OUTPUT_PREFIX)) {
+				outputs.add(key.substring(OUTPUT_PREFIX.length()));
+			}
+		}
+		return outputs;
+	}
+
+	/**
+	 * Checks that the output exists and has the length recorded in this manifest.
+	 * 
+	 * @param targetDir
+	 * @param path
+	 * @return
+	 */
+	public boolean isOutputUnchanged(final File targetDir, final String path) {
+		String length = this.properties.getProperty(OUTPUT_PREFIX + path);
+		File output = new File(targetDir, path);
+		return length != null && output.isFile() && length.equals(String.valueOf(output.length()));
+	}
+
+	/**
+	 * Records the output at the given path relative to the target directory.
+	 * 
+	 * @param targetDir
+	 * @param path
+	 */
+	public void addOutput(final File targetDir, final String path) {
+		this.properties.setProperty(OUTPUT_PREFIX + path, String.valueOf(new File(targetDir, path).length()));
+	}
+
+	private String[] getSourceRecord(final String name) {
+		String value = this.properties.getProperty(SOURCE_PREFIX + name);
+		if (value == null) {
+			return null;
+		}
+		String[] record = value.split(",", 3);
+		return record.length == 3 ? record : null;
+	}
+
+}
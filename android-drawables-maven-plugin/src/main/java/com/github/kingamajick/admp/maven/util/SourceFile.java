@@ -0,0 +1,92 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.util;
+
+import java.io.File;
+
+/**
+ * A source file found by the {@link SourceScanner}, along with the attributes read when it was scanned.
+ * 
+ * @author R King
+ * 
+ */
+public final class SourceFile {
+
+	private final File file;
+	private final String density;
+	private final String name;
+	private final String type;
+	private final long length;
+	private final long lastModified;
+
+	SourceFile(final File file, final String density, final String name, final String type, final long length, final long lastModified) {
+		this.file = file;
+		this.density = density;
+		this.name = name;
+		this.type = type;
+		this.length = length;
+		this.lastModified = lastModified;
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return the density directory containing the file, or null if the scan doesn't use density directories.
+	 */
+	public String getDensity() {
+		return this.density;
+	}
+
+	/**
+	 * @return the flattened name of the file, i.e. the directories below the density directory and the file name without its extension,
+	 *         separated by '_'.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return the extension of the file in lower case.
+	 */
+	public String getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return the length of the file when it was scanned.
+	 */
+	public long getLength() {
+		return this.length;
+	}
+
+	/**
+	 * @return the last modified time of the file when it was scanned.
+	 */
+	public long getLastModified() {
+		return this.lastModified;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return this.file.toString();
+	}
+}
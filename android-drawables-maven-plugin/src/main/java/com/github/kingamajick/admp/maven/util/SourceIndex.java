@@ -0,0 +1,81 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index of the source files found by a single scan of a directory, by density.
+ * 
+ * @author R King
+ * 
+ */
+public final class SourceIndex {
+
+	private final List<SourceFile> files;
+	private final Map<String, List<SourceFile>> filesByDensity;
+
+	SourceIndex(final List<SourceFile> files) {
+		this.files = Collections.unmodifiableList(new ArrayList<SourceFile>(files));
+		Map<String, List<SourceFile>> byDensity = new HashMap<String, List<SourceFile>>();
+		for (SourceFile file : this.files) {
+			if (file.getDensity() != null) {
+				add(byDensity, file.getDensity(), file);
+			}
+		}
+		this.filesByDensity = freeze(byDensity);
+	}
+
+	/**
+	 * @return every file found, in the order they were found.
+	 */
+	public List<SourceFile> getFiles() {
+		return this.files;
+	}
+
+	/**
+	 * @param density
+	 * @return the files found in the density directory, an empty list if there are none.
+	 */
+	public List<SourceFile> getFilesByDensity(final String density) {
+		List<SourceFile> densityFiles = this.filesByDensity.get(density);
+		return densityFiles == null ? Collections.<SourceFile> emptyList() : densityFiles;
+	}
+
+	public boolean isEmpty() {
+		return this.files.isEmpty();
+	}
+
+	private static void add(final Map<String, List<SourceFile>> index, final String key, final SourceFile file) {
+		List<SourceFile> files = index.get(key);
+		if (files == null) {
+			files = new ArrayList<SourceFile>();
+			index.put(key, files);
+		}
+		files.add(file);
+	}
+
+	private static Map<String, List<SourceFile>> freeze(final Map<String, List<SourceFile>> index) {
+		for (Map.Entry<String, List<SourceFile>> entry : index.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		return Collections.unmodifiableMap(index);
+	}
+}
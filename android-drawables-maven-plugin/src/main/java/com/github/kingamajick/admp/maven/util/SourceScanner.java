@@ -0,0 +1,149 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Scans a directory for source files in a single pass and produces an immutable {@link SourceIndex} of them, with each file's size and
+ * modification time cached in the index. Files are selected by their extension and by include and exclude patterns, relative to the
+ * scanned directory, such as <code>icons/**</code> or <code>**&#47;*_draft.svg</code>. Directories matching an exclude pattern ending in
+ * <code>**</code> aren't scanned at all.
+ * <p>
+ * If density directories are given, only the files within those directories at the top of the scanned directory are indexed, and the
+ * density of each file is the directory containing it. The name of each file is flattened from its path below the density directory, i.e.
+ * <code>${subDir1}/${subDir2}/${fileName}.${type}</code> is named <code>${subDir1}_${subDir2}_${fileName}</code>.
+ * 
+ * @author R King
+ * 
+ */
+public class SourceScanner {
+
+	private final Set<String> types = new HashSet<String>();
+	private final Set<String> densityDirectories = new HashSet<String>();
+	private final List<String> includes = new ArrayList<String>();
+	private final List<String> excludes = new ArrayList<String>();
+
+	/**
+	 * @param types
+	 *            the extensions of the files to index.
+	 * @param densityDirectories
+	 *            the names of the density directories, or an empty collection if files aren't grouped by density.
+	 * @param includes
+	 *            the patterns of the files to index, if null or empty every file is included.
+	 * @param excludes
+	 *            the patterns of the files not to index, may be null.
+	 */
+	public SourceScanner(final Collection<String> types, final Collection<String> densityDirectories, final List<String> includes,
+			final List<String> excludes) {
+		Asserts.notNull(types, "types");
+		Asserts.notNull(densityDirectories, "densityDirectories");
+
+		for (String type : types) {
+			this.types.add(type.toLowerCase(Locale.ENGLISH));
+		}
+		this.densityDirectories.addAll(densityDirectories);
+		for (String include : includes == null ? Collections.<String> emptyList() : includes) {
+			this.includes.add(normalise(include));
+		}
+		for (String exclude : excludes == null ? Collections.<String> emptyList() : excludes) {
+			this.excludes.add(normalise(exclude));
+		}
+	}
+
+	/**
+	 * Scans the directory, if the directory doesn't exist the index is empty.
+	 * 
+	 * @param root
+	 * @return the index of the files found.
+	 */
+	public SourceIndex scan(final File root) {
+		Asserts.notNull(root, "root");
+
+		List<SourceFile> files = new ArrayList<SourceFile>();
+		File[] children = root.listFiles();
+		if (children != null) {
+			if (this.densityDirectories.isEmpty()) {
+				scan(files, children, "", null, "");
+			}
+			else {
+				for (File child : children) {
+					if (this.densityDirectories.contains(child.getName()) && !isExcludedDirectory(child.getName())) {
+						File[] densityFiles = child.listFiles();
+						if (densityFiles != null) {
+							scan(files, densityFiles, child.getName() + File.separator, child.getName(), "");
+						}
+					}
+				}
+			}
+		}
+		return new SourceIndex(files);
+	}
+
+	private void scan(final List<SourceFile> files, final File[] children, final String pathPrefix, final String density, final String namePrefix) {
+		for (File child : children) {
+			String fileName = child.getName();
+			String relativePath = pathPrefix + fileName;
+			int dot = fileName.lastIndexOf('.');
+			String type = dot < 0 ? null : fileName.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+			if (type != null && this.types.contains(type) && child.isFile()) {
+				if (isIncluded(relativePath)) {
+					files.add(new SourceFile(child, density, namePrefix + fileName.substring(0, dot), type, child.length(), child.lastModified()));
+				}
+			}
+			else if (child.isDirectory() && !isExcludedDirectory(relativePath)) {
+				File[] grandChildren = child.listFiles();
+				if (grandChildren != null) {
+					scan(files, grandChildren, relativePath + File.separator, density, namePrefix + fileName + "_");
+				}
+			}
+		}
+	}
+
+	private boolean isIncluded(final String relativePath) {
+		boolean included = this.includes.isEmpty();
+		for (int i = 0; !included && i < this.includes.size(); i++) {
+			included = SelectorUtils.matchPath(this.includes.get(i), relativePath);
+		}
+		for (int i = 0; included && i < this.excludes.size(); i++) {
+			included = !SelectorUtils.matchPath(this.excludes.get(i), relativePath);
+		}
+		return included;
+	}
+
+	private boolean isExcludedDirectory(final String relativePath) {
+		for (String exclude : this.excludes) {
+			if (exclude.endsWith("**") && SelectorUtils.matchPath(exclude, relativePath)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String normalise(final String pattern) {
+		return pattern.trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+	}
+
+}
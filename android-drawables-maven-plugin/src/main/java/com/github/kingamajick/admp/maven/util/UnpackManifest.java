@@ -0,0 +1,156 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Records which drawable artifact owns each file unpacked, so that files no longer owned by any of the drawable artifacts can be removed
+ * without scanning the unpack location, and so that unchanged files can be recognised without being read.
+ * <p>
+ * Files are recorded by their path relative to the unpack location as <code>${size},${crc},${lastModified},${owner}</code>, where the size
+ * and CRC-32 are those of the zip entry the file was unpacked from and the last modified time is that of the file once unpacked.
+ * 
+ * @author R King
+ * 
+ */
+public class UnpackManifest {
+
+	private static final String FILE_PREFIX = "file.";
+
+	private final Properties properties = new Properties();
+
+	/**
+	 * Loads the manifest from the given file. If the file doesn't exist or can't be read an empty manifest is returned.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static UnpackManifest load(final File file) {
+		Asserts.notNull(file, "file");
+
+		UnpackManifest manifest = new UnpackManifest();
+		if (file.isFile()) {
+			try {
+				InputStream is = new FileInputStream(file);
+				try {
+					manifest.properties.load(is);
+				}
+				finally {
+					is.close();
+				}
+			}
+			catch (IOException e) {
+				manifest.properties.clear();
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Stores the manifest to the given file, creating any parent directories required.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void store(final File file) throws IOException {
+		Asserts.notNull(file, "file");
+
+		File parent = file.getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Unable to make directory " + parent.getAbsolutePath());
+		}
+		OutputStream os = new FileOutputStream(file);
+		try {
+			this.properties.store(os, "android-drawables-maven-plugin unpack manifest");
+		}
+		finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Records the file unpacked at the given path.
+	 * 
+	 * @param path
+	 *            the path relative to the unpack location.
+	 * @param owner
+	 *            the artifact the file was unpacked from.
+	 * @param size
+	 * @param crc
+	 * @param file
+	 *            the unpacked file.
+	 */
+	public void addFile(final String path, final String owner, final long size, final long crc, final File file) {
+		this.properties.setProperty(FILE_PREFIX + path, size + "," + crc + "," + file.lastModified() + "," + owner);
+	}
+
+	/**
+	 * @return the paths, relative to the unpack location, of all the files recorded.
+	 */
+	public Set<String> getPaths() {
+		Set<String> paths = new HashSet<String>();
+		for (String key : this.properties.stringPropertyNames()) {
+			if (key.startsWith(FILE_PREFIX)) {
+				paths.add(key.substring(FILE_PREFIX.length()));
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * @param path
+	 * @return the artifact which owns the file at the given path, or null if there is no record of it.
+	 */
+	public String getOwner(final String path) {
+		String[] record = getRecord(path);
+		return record == null ? null : record[3];
+	}
+
+	/**
+	 * Checks that the file was recorded with the given size and CRC-32, and that it still has the size and last modified time recorded, so
+	 * that it can be assumed to be unchanged without reading it.
+	 * 
+	 * @param path
+	 * @param size
+	 * @param crc
+	 * @param file
+	 * @return
+	 */
+	public boolean isUnchanged(final String path, final long size, final long crc, final File file) {
+		String[] record = getRecord(path);
+		return record != null && record[0].equals(String.valueOf(size)) && record[1].equals(String.valueOf(crc)) && file.isFile()
+				&& file.length() == size && record[2].equals(String.valueOf(file.lastModified()));
+	}
+
+	private String[] getRecord(final String path) {
+		String value = this.properties.getProperty(FILE_PREFIX + path);
+		if (value == null) {
+			return null;
+		}
+		String[] record = value.split(",", 4);
+		return record.length == 4 ? record : null;
+	}
+
+}
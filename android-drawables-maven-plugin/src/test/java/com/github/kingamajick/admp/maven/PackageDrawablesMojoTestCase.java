@@ -0,0 +1,120 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Test;
+
+import com.github.kingamajick.admp.maven.util.Checksums;
+import com.github.kingamajick.admp.maven.util.Constants;
+import com.github.kingamajick.maven.utils.TestUtils;
+
+/**
+ * @author R King
+ * 
+ */
+public class PackageDrawablesMojoTestCase {
+	private final static File TEST_DIR = new File("target/test-classes/package-drawables/");
+
+	@Test
+	public void identicalContentsProduceIdenticalArchives() throws Exception {
+		// Setup
+		File classesDir = new File(TEST_DIR, "baseCase/classes");
+		File firstArchive = new File(TEST_DIR, "baseCase/target/first.jar");
+		File secondArchive = new File(TEST_DIR, "baseCase/target/second.jar");
+		FileUtils.deleteDirectory(new File(TEST_DIR, "baseCase/target"));
+
+		PackageDrawablesMojo mojo = new PackageDrawablesMojo();
+		mojo.setLog(new SystemStreamLog());
+
+		// Execute
+		int images = mojo.createArchive(classesDir, firstArchive);
+		// Touch every file, only the contents of the files should matter.
+		for (Object file : FileUtils.getFiles(classesDir, null, null)) {
+			((File) file).setLastModified(System.currentTimeMillis() - 60000);
+		}
+		mojo.createArchive(classesDir, secondArchive);
+
+		// Assert
+		assertEquals(3, images);
+		assertEquals(TestUtils.getChecksum(firstArchive), TestUtils.getChecksum(secondArchive));
+		ZipFile zipFile = new ZipFile(firstArchive);
+		try {
+			List<String> names = new ArrayList<String>();
+			for (ZipEntry zipEntry : Collections.list(zipFile.entries())) {
+				names.add(zipEntry.getName());
+				if (zipEntry.getName().endsWith(".png")) {
+					assertEquals(ZipEntry.STORED, zipEntry.getMethod());
+				}
+			}
+			List<String> sorted = new ArrayList<String>(names.subList(0, names.size() - 1));
+			Collections.sort(sorted);
+			assertEquals(sorted, names.subList(0, names.size() - 1));
+			assertEquals(Constants.DRAWABLES_INDEX, names.get(names.size() - 1));
+		}
+		finally {
+			zipFile.close();
+		}
+	}
+
+	@Test
+	public void indexListsDensitySizeAndCrc() throws Exception {
+		// Setup
+		File classesDir = new File(TEST_DIR, "baseCase/classes");
+		File archive = new File(TEST_DIR, "baseCase/target/indexed.jar");
+
+		PackageDrawablesMojo mojo = new PackageDrawablesMojo();
+		mojo.setLog(new SystemStreamLog());
+
+		// Execute
+		mojo.createArchive(classesDir, archive);
+
+		// Assert
+		Properties index = new Properties();
+		ZipFile zipFile = new ZipFile(archive);
+		try {
+			InputStream is = zipFile.getInputStream(zipFile.getEntry(Constants.DRAWABLES_INDEX));
+			try {
+				index.load(is);
+			}
+			finally {
+				is.close();
+			}
+		}
+		finally {
+			zipFile.close();
+		}
+		assertEquals(3, index.size());
+		File mdpiImage = new File(classesDir, "res/drawable-mdpi/image.png");
+		assertEquals("mdpi," + mdpiImage.length() + "," + Long.toHexString(Checksums.crc32(mdpiImage)), index.getProperty("res/drawable-mdpi/image.png"));
+		assertTrue(index.getProperty("res/drawable-hdpi/image.png").startsWith("hdpi,"));
+		assertTrue(index.getProperty("res/drawable/image.png").startsWith(","));
+		assertNull(index.getProperty("res/values/strings.xml"));
+	}
+
+}
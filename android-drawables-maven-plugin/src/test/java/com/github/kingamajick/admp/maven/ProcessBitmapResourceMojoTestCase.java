@@ -18,11 +18,15 @@ package com.github.kingamajick.admp.maven;
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import javax.imageio.ImageIO;
+
 import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
@@ -116,6 +120,203 @@ public class ProcessBitmapResourceMojoTestCase {
 		verify(mockResource);
 	}
 
+	@Test
+	public void includesAndExcludes() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "filterCase");
+		File resouceDir = new File(testBaseDir, "src/main/resources");
+		File targetDir = new File(testBaseDir, "target/classes/res");
+
+		Resource mockResource = createMock(Resource.class);
+		List<Resource> resources = new ArrayList<Resource>();
+		resources.add(mockResource);
+
+		ProcessBitmapResourcesMojo mojo = new ProcessBitmapResourcesMojo();
+		Reflection.field("resources").ofType(List.class).in(mojo).set(resources);
+		Reflection.field("targetDir").ofType(File.class).in(mojo).set(targetDir);
+		Reflection.field("includes").ofType(List.class).in(mojo).set(Arrays.asList("hdpi/**"));
+		Reflection.field("excludes").ofType(List.class).in(mojo).set(Arrays.asList("**/draft/**"));
+		mojo.setLog(this.mockLogger);
+
+		// @formatter:off
+		FileExpectationHolder[] expectedFiles = {
+			createExpectation(new File(resouceDir, "hdpi/" + IMAGE_FILE_NAME),         new File(targetDir, "drawable-hdpi/" + IMAGE_FILE_NAME)),
+			createExpectation(new File(resouceDir, "hdpi/icons/menu/ic_search.png"), new File(targetDir, "drawable-hdpi/icons_menu_ic_search.png")),
+		};
+		// @formatter:on 
+
+		// Expectations
+		expect(mockResource.getDirectory()).andReturn(resouceDir.getAbsolutePath());
+
+		replay(mockResource);
+
+		// Execute
+		mojo.execute();
+
+		// Assert
+		for (FileExpectationHolder holder : expectedFiles) {
+			assertTrue("Expected file " + holder.expectedFile.getAbsolutePath() + " does not exist.", holder.expectedFile.exists());
+			assertEquals("Checksums don't match for files " + holder.inputFile + " and " + holder.expectedFile, holder.inputFileChecksum, TestUtils.getChecksum(holder.expectedFile));
+		}
+		assertEquals(2, new File(targetDir, "drawable-hdpi").list().length);
+		assertFalse(new File(targetDir, "drawable-mdpi").exists());
+		verify(mockResource);
+	}
+
+	@Test
+	public void incrementalCopySkipsUpToDateAndRemovesStale() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "incremental");
+		File resouceDir = new File(testBaseDir, "src/main/resources");
+		File targetDir = new File(testBaseDir, "target/classes/res");
+		File manifestFile = new File(testBaseDir, "target/static-resources.properties");
+		FileUtils.deleteDirectory(testBaseDir);
+		File image = new File(TEST_DIR, "baseCase/src/main/resources/hdpi/" + IMAGE_FILE_NAME);
+		FileUtils.copyFile(image, new File(resouceDir, "hdpi/" + IMAGE_FILE_NAME));
+		FileUtils.copyFile(image, new File(resouceDir, "hdpi/ic_removed.png"));
+
+		Resource mockResource = createNiceMock(Resource.class);
+		List<Resource> resources = new ArrayList<Resource>();
+		resources.add(mockResource);
+		expect(mockResource.getDirectory()).andReturn(resouceDir.getAbsolutePath()).anyTimes();
+		replay(mockResource);
+
+		ProcessBitmapResourcesMojo mojo = new ProcessBitmapResourcesMojo();
+		Reflection.field("resources").ofType(List.class).in(mojo).set(resources);
+		Reflection.field("targetDir").ofType(File.class).in(mojo).set(targetDir);
+		Reflection.field("incremental").ofType(boolean.class).in(mojo).set(true);
+		Reflection.field("manifestFile").ofType(File.class).in(mojo).set(manifestFile);
+		Reflection.field("copyThreads").ofType(int.class).in(mojo).set(2);
+		mojo.setLog(this.mockLogger);
+
+		// Execute
+		mojo.execute();
+
+		// Assert
+		assertTrue(new File(targetDir, "drawable-hdpi/" + IMAGE_FILE_NAME).exists());
+		assertTrue(new File(targetDir, "drawable-hdpi/ic_removed.png").exists());
+		assertTrue(manifestFile.exists());
+
+		// Execute again, nothing has changed so nothing should be copied
+		Log log = createNiceMock(Log.class);
+		log.info("Copied 0 static resources, 2 were up to date");
+		replay(log);
+		mojo.setLog(log);
+		mojo.execute();
+		verify(log);
+
+		// Remove an image, its output should be deleted
+		assertTrue(new File(resouceDir, "hdpi/ic_removed.png").delete());
+		mojo.setLog(this.mockLogger);
+		mojo.execute();
+
+		assertTrue(new File(targetDir, "drawable-hdpi/" + IMAGE_FILE_NAME).exists());
+		assertFalse(new File(targetDir, "drawable-hdpi/ic_removed.png").exists());
+	}
+
+	@Test
+	public void crunchedPngsAreSmallerAndCached() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "crunch");
+		File resouceDir = new File(TEST_DIR, "baseCase/src/main/resources");
+		File targetDir = new File(testBaseDir, "target/classes/res");
+		FileUtils.deleteDirectory(testBaseDir);
+
+		Resource mockResource = createNiceMock(Resource.class);
+		List<Resource> resources = new ArrayList<Resource>();
+		resources.add(mockResource);
+		expect(mockResource.getDirectory()).andReturn(resouceDir.getAbsolutePath()).anyTimes();
+		replay(mockResource);
+
+		ProcessBitmapResourcesMojo mojo = new ProcessBitmapResourcesMojo();
+		Reflection.field("resources").ofType(List.class).in(mojo).set(resources);
+		Reflection.field("targetDir").ofType(File.class).in(mojo).set(targetDir);
+		Reflection.field("crunch").ofType(boolean.class).in(mojo).set(true);
+		Reflection.field("cacheDirectory").ofType(File.class).in(mojo).set(new File(testBaseDir, "cache"));
+		Reflection.field("cacheMaxSize").ofType(int.class).in(mojo).set(1);
+		mojo.setLog(this.mockLogger);
+
+		// Execute
+		mojo.execute();
+
+		// Assert
+		for (String density : new String[] { "ldpi", "mdpi", "hdpi", "xhdpi" }) {
+			File input = new File(resouceDir, density + "/" + IMAGE_FILE_NAME);
+			File output = new File(targetDir, "drawable-" + density + "/" + IMAGE_FILE_NAME);
+			assertTrue("Expected " + output + " to be smaller than " + input, output.length() < input.length());
+			BufferedImage expected = ImageIO.read(input);
+			BufferedImage actual = ImageIO.read(output);
+			assertEquals(expected.getWidth(), actual.getWidth());
+			assertEquals(expected.getHeight(), actual.getHeight());
+			for (int y = 0; y < expected.getHeight(); y++) {
+				for (int x = 0; x < expected.getWidth(); x++) {
+					int expectedPixel = expected.getRGB(x, y);
+					// The color of fully transparent pixels isn't preserved
+					if (expectedPixel >>> 24 != 0 || actual.getRGB(x, y) >>> 24 != 0) {
+						assertEquals("Pixel " + x + "," + y + " of " + output, expectedPixel, actual.getRGB(x, y));
+					}
+				}
+			}
+		}
+
+		// Execute again into a clean directory, every PNG should be fetched from the cache
+		FileUtils.deleteDirectory(targetDir);
+		Log log = createNiceMock(Log.class);
+		log.info("Image cache: 6 hits, 0 misses");
+		replay(log);
+		mojo.setLog(log);
+		mojo.execute();
+		verify(log);
+	}
+
+	@Test
+	public void generateMissingDensities() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "generateDensities");
+		File resouceDir = new File(testBaseDir, "src/main/resources");
+		File targetDir = new File(testBaseDir, "target/classes/res");
+		FileUtils.deleteDirectory(testBaseDir);
+		File baseResourceDir = new File(TEST_DIR, "baseCase/src/main/resources");
+		FileUtils.copyFile(new File(baseResourceDir, "xhdpi/" + IMAGE_FILE_NAME), new File(resouceDir, "xhdpi/ic_master.png"));
+		FileUtils.copyFile(new File(baseResourceDir, "xhdpi/" + IMAGE_FILE_NAME), new File(resouceDir, "xhdpi/" + IMAGE_FILE_NAME));
+		FileUtils.copyFile(new File(baseResourceDir, "hdpi/" + IMAGE_FILE_NAME), new File(resouceDir, "hdpi/" + IMAGE_FILE_NAME));
+		// A hand made image of the same resource name as the master, but of another type.
+		FileUtils.copyFile(new File(baseResourceDir, "hdpi/" + IMAGE_FILE_NAME), new File(resouceDir, "mdpi/ic_master.jpg"));
+
+		Resource mockResource = createNiceMock(Resource.class);
+		List<Resource> resources = new ArrayList<Resource>();
+		resources.add(mockResource);
+		expect(mockResource.getDirectory()).andReturn(resouceDir.getAbsolutePath()).anyTimes();
+		replay(mockResource);
+
+		ProcessBitmapResourcesMojo mojo = new ProcessBitmapResourcesMojo();
+		Reflection.field("resources").ofType(List.class).in(mojo).set(resources);
+		Reflection.field("targetDir").ofType(File.class).in(mojo).set(targetDir);
+		Reflection.field("generateDensities").ofType(boolean.class).in(mojo).set(true);
+		Reflection.field("cacheDirectory").ofType(File.class).in(mojo).set(new File(testBaseDir, "cache"));
+		Reflection.field("cacheMaxSize").ofType(int.class).in(mojo).set(1);
+		mojo.setLog(this.mockLogger);
+
+		// Execute
+		mojo.execute();
+
+		// Assert, the xhdpi master is 96x96 so should be generated at 36x36 and 72x72, mdpi already has an ic_master image
+		int[] expectedSizes = { 36, 72 };
+		String[] densities = { "ldpi", "hdpi" };
+		for (int i = 0; i < densities.length; i++) {
+			BufferedImage generated = ImageIO.read(new File(targetDir, "drawable-" + densities[i] + "/ic_master.png"));
+			assertEquals(expectedSizes[i], generated.getWidth());
+			assertEquals(expectedSizes[i], generated.getHeight());
+		}
+		assertFalse(new File(targetDir, "drawable-mdpi/ic_master.png").exists());
+		assertTrue(new File(targetDir, "drawable-mdpi/ic_master.jpg").exists());
+		// Images present at more than one density are maintained by hand
+		assertFalse(new File(targetDir, "drawable-ldpi/" + IMAGE_FILE_NAME).exists());
+		assertFalse(new File(targetDir, "drawable-mdpi/" + IMAGE_FILE_NAME).exists());
+		assertEquals(TestUtils.getChecksum(new File(resouceDir, "hdpi/" + IMAGE_FILE_NAME)),
+				TestUtils.getChecksum(new File(targetDir, "drawable-hdpi/" + IMAGE_FILE_NAME)));
+	}
+
 	@Test(expected = MojoFailureException.class)
 	public void ioException() throws Exception {
 		// Setup
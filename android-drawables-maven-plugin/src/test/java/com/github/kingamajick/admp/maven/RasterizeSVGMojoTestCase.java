@@ -19,23 +19,36 @@ import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
+import org.apache.batik.transcoder.SVGAbstractTranscoder;
 import org.apache.batik.transcoder.TranscoderException;
-import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.TranscoderOutput;
 import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
 import org.fest.reflect.core.Reflection;
 import org.junit.Test;
+import org.w3c.dom.DOMImplementation;
 
 import com.github.kingamajick.admp.maven.beans.Density;
 import com.github.kingamajick.admp.maven.transcoder.TranscoderFactory;
+import com.github.kingamajick.admp.maven.util.Constants;
+import com.github.kingamajick.maven.utils.TestUtils;
 
 /**
  * @author R King
@@ -136,9 +149,11 @@ public class RasterizeSVGMojoTestCase {
 		Reflection.field("transcoderFactory").ofType(TranscoderFactory.class).in(mojo).set(mockTranscoderFactor);
 
 		// Expectation
-		mockTranscoderFactor.create(PNG_TYPE);
-		expectLastCall().andReturn(mockTranscoder);
-		mockTranscoder.transcode(anyObject(TranscoderInput.class), anyObject(TranscoderOutput.class));
+		mockTranscoderFactor.create(PNG_TYPE, null);
+		expectLastCall().andReturn(mockTranscoder).atLeastOnce();
+		mockTranscoder.createImage(anyInt(), anyInt());
+		expectLastCall().andReturn(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB)).anyTimes();
+		mockTranscoder.writeImage(anyObject(BufferedImage.class), anyObject(TranscoderOutput.class));
 		expectLastCall().andThrow(new TranscoderException(""));
 
 		replay(mockTranscoderFactor, mockTranscoder);
@@ -194,4 +209,678 @@ public class RasterizeSVGMojoTestCase {
 		}
 	}
 
+	@Test
+	public void parallelRasterizationMatchesSerial() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "baseCase");
+		File svgDir = new File(testBaseDir, "src/main/svg");
+		File serialTargetDir = new File(testBaseDir, "target/serial/res");
+		File parallelTargetDir = new File(testBaseDir, "target/parallel/res");
+		String[] outputs = { "drawable-ldpi/icon_main.png", "drawable-mdpi/icon_main.png", "drawable-hdpi/icon_main.png", "drawable-xhdpi/icon_main.png",
+				"drawable-ldpi/image.png", "drawable-mdpi/image.png", "drawable-hdpi/image.png", "drawable-xhdpi/image.png" };
+
+		RasterizeSVGMojo serialMojo = new RasterizeSVGMojo();
+		serialMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(serialMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(serialMojo).set(serialTargetDir);
+		Reflection.field("densities").ofType(List.class).in(serialMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(serialMojo).set(PNG_TYPE);
+		Reflection.field("parallelism").ofType(int.class).in(serialMojo).set(1);
+
+		RasterizeSVGMojo parallelMojo = new RasterizeSVGMojo();
+		parallelMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(parallelMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(parallelMojo).set(parallelTargetDir);
+		Reflection.field("densities").ofType(List.class).in(parallelMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(parallelMojo).set(PNG_TYPE);
+		Reflection.field("parallelism").ofType(int.class).in(parallelMojo).set(4);
+
+		// Execute
+		serialMojo.execute();
+		parallelMojo.execute();
+
+		// Assert
+		for (String output : outputs) {
+			File serialFile = new File(serialTargetDir, output);
+			File parallelFile = new File(parallelTargetDir, output);
+			assertTrue("Expected file " + parallelFile.getAbsolutePath() + " does not exist.", parallelFile.exists());
+			assertEquals("Checksums don't match for files " + serialFile + " and " + parallelFile, TestUtils.getChecksum(serialFile), TestUtils.getChecksum(parallelFile));
+		}
+	}
+
+	@Test
+	public void pipelineWithBoundedMemoryMatchesSerial() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "baseCase");
+		File svgDir = new File(testBaseDir, "src/main/svg");
+		File serialTargetDir = new File(testBaseDir, "target/pipeline-serial/res");
+		File pipelineTargetDir = new File(testBaseDir, "target/pipeline/res");
+		String[] outputs = { "drawable-ldpi/icon_main.png", "drawable-mdpi/icon_main.png", "drawable-hdpi/icon_main.png", "drawable-xhdpi/icon_main.png",
+				"drawable-ldpi/image.png", "drawable-mdpi/image.png", "drawable-hdpi/image.png", "drawable-xhdpi/image.png" };
+
+		RasterizeSVGMojo serialMojo = new RasterizeSVGMojo();
+		serialMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(serialMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(serialMojo).set(serialTargetDir);
+		Reflection.field("densities").ofType(List.class).in(serialMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(serialMojo).set(PNG_TYPE);
+
+		RasterizeSVGMojo pipelineMojo = new RasterizeSVGMojo();
+		pipelineMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(pipelineMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(pipelineMojo).set(pipelineTargetDir);
+		Reflection.field("densities").ofType(List.class).in(pipelineMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(pipelineMojo).set(PNG_TYPE);
+		Reflection.field("parseThreads").ofType(int.class).in(pipelineMojo).set(2);
+		Reflection.field("renderThreads").ofType(int.class).in(pipelineMojo).set(3);
+		Reflection.field("encodeThreads").ofType(int.class).in(pipelineMojo).set(2);
+		Reflection.field("writeThreads").ofType(int.class).in(pipelineMojo).set(2);
+		Reflection.field("maxRenderedImages").ofType(int.class).in(pipelineMojo).set(2);
+		Reflection.field("maxRenderMemory").ofType(int.class).in(pipelineMojo).set(1);
+
+		// Execute
+		serialMojo.execute();
+		pipelineMojo.execute();
+
+		// Assert
+		for (String output : outputs) {
+			File serialFile = new File(serialTargetDir, output);
+			File pipelineFile = new File(pipelineTargetDir, output);
+			assertTrue("Expected file " + pipelineFile.getAbsolutePath() + " does not exist.", pipelineFile.exists());
+			assertEquals("Checksums don't match for files " + serialFile + " and " + pipelineFile, TestUtils.getChecksum(serialFile), TestUtils.getChecksum(pipelineFile));
+		}
+	}
+
+	@Test
+	public void tiledRenderingMatchesFullRender() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "baseCase");
+		File svgDir = new File(testBaseDir, "src/main/svg");
+		File fullTargetDir = new File(testBaseDir, "target/full/res");
+		File tiledTargetDir = new File(testBaseDir, "target/tiled/res");
+		String[] outputs = { "drawable-ldpi/icon_main.png", "drawable-xhdpi/icon_main.png", "drawable-ldpi/image.png", "drawable-xhdpi/image.png" };
+
+		RasterizeSVGMojo fullMojo = new RasterizeSVGMojo();
+		fullMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(fullMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(fullMojo).set(fullTargetDir);
+		Reflection.field("densities").ofType(List.class).in(fullMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(fullMojo).set(PNG_TYPE);
+
+		RasterizeSVGMojo tiledMojo = new RasterizeSVGMojo();
+		tiledMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(tiledMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(tiledMojo).set(tiledTargetDir);
+		Reflection.field("densities").ofType(List.class).in(tiledMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(tiledMojo).set(PNG_TYPE);
+		Reflection.field("tiledRenderThreshold").ofType(int.class).in(tiledMojo).set(1);
+		Reflection.field("tileHeight").ofType(int.class).in(tiledMojo).set(7);
+
+		// Execute
+		fullMojo.execute();
+		tiledMojo.execute();
+
+		// Assert
+		for (String output : outputs) {
+			BufferedImage full = ImageIO.read(new File(fullTargetDir, output));
+			BufferedImage tiled = ImageIO.read(new File(tiledTargetDir, output));
+			assertEquals("Width of " + output + " differs", full.getWidth(), tiled.getWidth());
+			assertEquals("Height of " + output + " differs", full.getHeight(), tiled.getHeight());
+			for (int y = 0; y < full.getHeight(); y++) {
+				for (int x = 0; x < full.getWidth(); x++) {
+					int expected = full.getRGB(x, y);
+					int actual = tiled.getRGB(x, y);
+					// The color of fully transparent pixels isn't significant.
+					if ((expected >>> 24) != 0 || (actual >>> 24) != 0) {
+						assertEquals("Pixel " + x + "," + y + " of " + output + " differs", expected, actual);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void downsampleDensityStrategy() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "baseCase");
+		File svgDir = new File(testBaseDir, "src/main/svg");
+		File renderTargetDir = new File(testBaseDir, "target/render/res");
+		File downsampleTargetDir = new File(testBaseDir, "target/downsample/res");
+
+		RasterizeSVGMojo renderMojo = new RasterizeSVGMojo();
+		renderMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(renderMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(renderMojo).set(renderTargetDir);
+		Reflection.field("densities").ofType(List.class).in(renderMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(renderMojo).set(PNG_TYPE);
+
+		RasterizeSVGMojo downsampleMojo = new RasterizeSVGMojo();
+		downsampleMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(downsampleMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(downsampleMojo).set(downsampleTargetDir);
+		Reflection.field("densities").ofType(List.class).in(downsampleMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(downsampleMojo).set(PNG_TYPE);
+		Reflection.field("encodeThreads").ofType(int.class).in(downsampleMojo).set(4);
+		Reflection.field("densityStrategy").ofType(String.class).in(downsampleMojo).set("downsample");
+		List<String> excludes = new ArrayList<String>();
+		excludes.add("icon/*.svg");
+		Reflection.field("downsampleExcludes").ofType(List.class).in(downsampleMojo).set(excludes);
+
+		// @formatter:off
+		PNGExpectationHolder[] expectedPNGs = {
+				createExpectation(new File(downsampleTargetDir, "drawable-ldpi/image.png"),  150, 75),
+				createExpectation(new File(downsampleTargetDir, "drawable-mdpi/image.png"),  200, 100),
+				createExpectation(new File(downsampleTargetDir, "drawable-hdpi/image.png"),  300, 150),
+				createExpectation(new File(downsampleTargetDir, "drawable-xhdpi/image.png"),  400, 200),
+		};
+		// @formatter:on
+
+		// Execute
+		renderMojo.execute();
+		downsampleMojo.execute();
+
+		// Assert
+		for (PNGExpectationHolder holder : expectedPNGs) {
+			assertTrue("Expected file " + holder.expectedFile.getAbsolutePath() + " does not exist.", holder.expectedFile.exists());
+			BufferedImage img = ImageIO.read(holder.expectedFile);
+			assertEquals("Width of generated PNG is " + img.getWidth() + "px, expected " + holder.expectedWidth + "px", holder.expectedWidth, img.getWidth());
+			assertEquals("Height of generated PNG is " + img.getHeight() + "px, expected " + holder.expectedHeight + "px", holder.expectedHeight, img.getHeight());
+		}
+		// The largest density is rendered, and excluded SVGs are rendered at every density.
+		for (String output : new String[] { "drawable-xhdpi/image.png", "drawable-ldpi/icon_main.png", "drawable-xhdpi/icon_main.png" }) {
+			assertEquals("Checksums don't match for " + output, TestUtils.getChecksum(new File(renderTargetDir, output)),
+					TestUtils.getChecksum(new File(downsampleTargetDir, output)));
+		}
+	}
+
+	@Test
+	public void vectorDrawablesWithRasterFallback() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "vectorDrawableCase");
+		File targetDir = new File(testBaseDir, "target/res");
+		RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+		mojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(mojo).set(new File(testBaseDir, "src/main/svg"));
+		Reflection.field("targetDir").ofType(File.class).in(mojo).set(targetDir);
+		Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+		Reflection.field("vectorDrawables").ofType(boolean.class).in(mojo).set(true);
+
+		// Execute
+		mojo.execute();
+
+		// Assert
+		File vectorDrawable = new File(targetDir, "drawable/flat.xml");
+		assertTrue("Expected file " + vectorDrawable.getAbsolutePath() + " does not exist.", vectorDrawable.exists());
+		String xml = FileUtils.fileRead(vectorDrawable, "UTF-8");
+		assertTrue(xml.contains("android:viewportWidth=\"24\""));
+		assertTrue(xml.contains("android:rotation=\"45\""));
+		assertTrue(xml.contains("android:fillColor=\"#3366CC\""));
+		assertTrue(xml.contains("android:strokeLineCap=\"round\""));
+		assertFalse(new File(targetDir, "drawable-mdpi/flat.png").exists());
+		// The gradient can't be converted, so the SVG is rasterized.
+		assertFalse(new File(targetDir, "drawable/gradient.xml").exists());
+		for (String density : new String[] { "drawable-ldpi", "drawable-mdpi", "drawable-hdpi", "drawable-xhdpi" }) {
+			File png = new File(targetDir, density + "/gradient.png");
+			assertTrue("Expected file " + png.getAbsolutePath() + " does not exist.", png.exists());
+		}
+	}
+
+	@Test
+	public void identicalSVGsAreRasterizedOnce() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "duplicateCase");
+		File targetDir = new File(testBaseDir, "target/res");
+		Log log = createNiceMock(Log.class);
+		log.info("Copied the outputs of 1 SVGs which are identical to another SVG, rather than rasterizing them");
+		expectLastCall().once();
+		replay(log);
+		RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+		mojo.setLog(log);
+		Reflection.field("svgDirectory").ofType(File.class).in(mojo).set(new File(testBaseDir, "src/main/svg"));
+		Reflection.field("targetDir").ofType(File.class).in(mojo).set(targetDir);
+		Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+
+		// Execute
+		mojo.execute();
+
+		// Assert
+		verify(log);
+		for (String density : new String[] { "drawable-ldpi", "drawable-mdpi", "drawable-hdpi", "drawable-xhdpi" }) {
+			File a = new File(targetDir, density + "/a_image.png");
+			File b = new File(targetDir, density + "/b_image.png");
+			assertTrue("Expected file " + a.getAbsolutePath() + " does not exist.", a.exists());
+			assertTrue("Expected file " + b.getAbsolutePath() + " does not exist.", b.exists());
+			assertEquals("Checksums don't match for " + density, TestUtils.getChecksum(a), TestUtils.getChecksum(b));
+			assertTrue(new File(targetDir, density + "/b_main.png").exists());
+		}
+	}
+
+	@Test
+	public void concurrentModulesMatchSerial() throws Exception {
+		// Setup
+		final int modules = 8;
+		File testBaseDir = new File(TEST_DIR, "baseCase");
+		final File svgDir = new File(testBaseDir, "src/main/svg");
+		final File concurrentDir = new File(testBaseDir, "target/concurrent");
+		File serialTargetDir = new File(concurrentDir, "serial/res");
+		final File cacheDir = new File(concurrentDir, "cache");
+		FileUtils.deleteDirectory(concurrentDir);
+
+		RasterizeSVGMojo serialMojo = new RasterizeSVGMojo();
+		serialMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(serialMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(serialMojo).set(serialTargetDir);
+		Reflection.field("densities").ofType(List.class).in(serialMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(serialMojo).set(PNG_TYPE);
+		serialMojo.execute();
+
+		// Execute, every module shares the rasterize cache and half of them share a worker pool, and all start at the same time.
+		final CountDownLatch start = new CountDownLatch(1);
+		DefaultRasterizeWorkerPool workerPool = new DefaultRasterizeWorkerPool(2);
+		ExecutorService executor = Executors.newFixedThreadPool(modules);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		try {
+			for (int i = 0; i < modules; i++) {
+				final File moduleDir = new File(concurrentDir, "module-" + i);
+				final RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+				mojo.setLog(this.mockLogger);
+				Reflection.field("svgDirectory").ofType(File.class).in(mojo).set(svgDir);
+				Reflection.field("targetDir").ofType(File.class).in(mojo).set(new File(moduleDir, "res"));
+				Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+				Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+				Reflection.field("parallelism").ofType(int.class).in(mojo).set(2);
+				Reflection.field("incremental").ofType(boolean.class).in(mojo).set(true);
+				Reflection.field("manifestFile").ofType(File.class).in(mojo).set(new File(moduleDir, "rasterize.properties"));
+				Reflection.field("useCache").ofType(boolean.class).in(mojo).set(true);
+				Reflection.field("cacheDirectory").ofType(File.class).in(mojo).set(cacheDir);
+				Reflection.field("cacheMaxSize").ofType(int.class).in(mojo).set(512);
+				if (i % 2 == 0) {
+					Reflection.field("workerPool").ofType(RasterizeWorkerPool.class).in(mojo).set(workerPool);
+				}
+				results.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						start.await();
+						mojo.execute();
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		}
+		finally {
+			executor.shutdownNow();
+			workerPool.dispose();
+		}
+
+		// Assert
+		for (int i = 0; i < modules; i++) {
+			File moduleTargetDir = new File(concurrentDir, "module-" + i + "/res");
+			for (String density : new String[] { "drawable-ldpi", "drawable-mdpi", "drawable-hdpi", "drawable-xhdpi" }) {
+				for (String image : new String[] { "image.png", "icon_main.png" }) {
+					File expected = new File(serialTargetDir, density + "/" + image);
+					File actual = new File(moduleTargetDir, density + "/" + image);
+					assertTrue("Expected file " + actual.getAbsolutePath() + " does not exist.", actual.exists());
+					assertEquals("Checksums don't match for " + actual, TestUtils.getChecksum(expected), TestUtils.getChecksum(actual));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void emptyModuleStartup() throws Exception {
+		// Setup, one module with an empty SVG directory and one without a SVG directory.
+		File testBaseDir = new File(TEST_DIR, "emptyCase");
+		File emptySvgDir = new File(testBaseDir, "src/main/svg");
+		assertTrue(emptySvgDir.isDirectory() || emptySvgDir.mkdirs());
+		File[] svgDirs = { emptySvgDir, new File(testBaseDir, "src/main/missing") };
+		File targetDir = new File(testBaseDir, "target/res");
+
+		// Expectations, no transcoders are created, so neither the pipeline nor Batik is initialised.
+		TranscoderFactory mockTranscoderFactory = createMock(TranscoderFactory.class);
+		replay(mockTranscoderFactory);
+
+		// Execute
+		for (File svgDir : svgDirs) {
+			RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+			mojo.setLog(this.mockLogger);
+			Reflection.field("svgDirectory").ofType(File.class).in(mojo).set(svgDir);
+			Reflection.field("targetDir").ofType(File.class).in(mojo).set(targetDir);
+			Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+			Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+			Reflection.field("incremental").ofType(boolean.class).in(mojo).set(true);
+			Reflection.field("manifestFile").ofType(File.class).in(mojo).set(new File(testBaseDir, "target/rasterize.properties"));
+			Reflection.field("transcoderFactory").ofType(TranscoderFactory.class).in(mojo).set(mockTranscoderFactory);
+			mojo.execute();
+		}
+
+		// Assert, nothing is rasterized.
+		verify(mockTranscoderFactory);
+		assertFalse(targetDir.exists());
+	}
+
+	@Test(expected = MojoExecutionException.class)
+	public void unknownDensityStrategy() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "baseCase");
+		RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+		mojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(mojo).set(new File(testBaseDir, "src/main/svg"));
+		Reflection.field("targetDir").ofType(File.class).in(mojo).set(new File(testBaseDir, "target/unknown/res"));
+		Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+		Reflection.field("densityStrategy").ofType(String.class).in(mojo).set("unknown");
+
+		// Execute
+		mojo.execute();
+	}
+
+	@Test
+	public void incrementalRasterizationSkipsUnchangedAndRemovesStale() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "incremental");
+		File svgDir = new File(testBaseDir, "src/main/svg");
+		File targetDir = new File(testBaseDir, "target/classes/res");
+		File manifestFile = new File(testBaseDir, "target/rasterize.properties");
+		FileUtils.deleteDirectory(testBaseDir);
+		FileUtils.copyFile(new File(TEST_DIR, "baseCase/src/main/svg/image.svg"), new File(svgDir, "image.svg"));
+		FileUtils.copyFile(new File(TEST_DIR, "baseCase/src/main/svg/icon/main.svg"), new File(svgDir, "icon.svg"));
+		File imageOutput = new File(targetDir, "drawable-mdpi/image.png");
+		File iconOutput = new File(targetDir, "drawable-mdpi/icon.png");
+
+		RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+		mojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(mojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(mojo).set(targetDir);
+		Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+		Reflection.field("incremental").ofType(boolean.class).in(mojo).set(true);
+		Reflection.field("manifestFile").ofType(File.class).in(mojo).set(manifestFile);
+
+		// Execute
+		mojo.execute();
+		assertTrue(manifestFile.exists());
+		assertTrue(imageOutput.setLastModified(1000L));
+		assertTrue(new File(svgDir, "icon.svg").delete());
+		mojo.execute();
+
+		// Assert
+		assertEquals("Unchanged SVG was rasterized again", 1000L, imageOutput.lastModified());
+		assertFalse("Output of removed SVG still exists", iconOutput.exists());
+	}
+
+	@Test
+	public void cachedImagesAreCopiedNotRasterized() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "baseCase");
+		File svgDir = new File(testBaseDir, "src/main/svg");
+		File cacheDir = new File(testBaseDir, "target/cache");
+		File firstTargetDir = new File(testBaseDir, "target/first/res");
+		File secondTargetDir = new File(testBaseDir, "target/second/res");
+		FileUtils.deleteDirectory(cacheDir);
+
+		RasterizeSVGMojo firstMojo = new RasterizeSVGMojo();
+		firstMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(firstMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(firstMojo).set(firstTargetDir);
+		Reflection.field("densities").ofType(List.class).in(firstMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(firstMojo).set(PNG_TYPE);
+		Reflection.field("useCache").ofType(boolean.class).in(firstMojo).set(true);
+		Reflection.field("cacheDirectory").ofType(File.class).in(firstMojo).set(cacheDir);
+		Reflection.field("cacheMaxSize").ofType(int.class).in(firstMojo).set(1);
+
+		RasterizeSVGMojo secondMojo = new RasterizeSVGMojo();
+		secondMojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(secondMojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(secondMojo).set(secondTargetDir);
+		Reflection.field("densities").ofType(List.class).in(secondMojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(secondMojo).set(PNG_TYPE);
+		Reflection.field("useCache").ofType(boolean.class).in(secondMojo).set(true);
+		Reflection.field("cacheDirectory").ofType(File.class).in(secondMojo).set(cacheDir);
+		Reflection.field("cacheMaxSize").ofType(int.class).in(secondMojo).set(1);
+
+		// Execute
+		firstMojo.execute();
+		// Replace every cache entry, so any output copied from the cache can be identified.
+		List<File> entries = FileUtils.getFiles(cacheDir, "**/*.png", null);
+		assertEquals(8, entries.size());
+		for (File entry : entries) {
+			FileUtils.fileWrite(entry.getAbsolutePath(), "cached");
+		}
+		secondMojo.execute();
+
+		// Assert
+		for (String output : new String[] { "drawable-ldpi/image.png", "drawable-xhdpi/icon_main.png" }) {
+			assertEquals("cached", FileUtils.fileRead(new File(secondTargetDir, output)));
+		}
+	}
+
+	@Test
+	public void cacheKeyIgnoresDOMImplementation() throws Exception {
+		// Setup, two transcoders which only differ by a DOM implementation with an identity based description.
+		RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+		Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+		Reflection.field("pluginVersion").ofType(String.class).in(mojo).set("1.0.0");
+		Density.defaults(mojo.densities);
+		TranscoderFactory transcoderFactory = new TranscoderFactory();
+		ImageTranscoder firstTranscoder = transcoderFactory.create(PNG_TYPE);
+		firstTranscoder.addTranscodingHint(SVGAbstractTranscoder.KEY_DOM_IMPLEMENTATION, createNiceMock(DOMImplementation.class));
+		ImageTranscoder secondTranscoder = transcoderFactory.create(PNG_TYPE);
+		secondTranscoder.addTranscodingHint(SVGAbstractTranscoder.KEY_DOM_IMPLEMENTATION, createNiceMock(DOMImplementation.class));
+
+		// Execute
+		String firstKey = mojo.getCacheKey("checksum", mojo.densities.get(0), firstTranscoder, "render");
+		String secondKey = mojo.getCacheKey("checksum", mojo.densities.get(0), secondTranscoder, "render");
+
+		// Assert
+		assertEquals(firstKey, secondKey);
+		assertFalse(firstKey.equals(mojo.getCacheKey("checksum", mojo.densities.get(1), firstTranscoder, "render")));
+	}
+
+	@Test
+	public void cacheKeyIgnoresSettingsWhichDontChangeTheImage() throws Exception {
+		// Setup
+		RasterizeSVGMojo mojo = createCacheKeyMojo();
+		RasterizeSVGMojo tvdpiMojo = createCacheKeyMojo();
+		tvdpiMojo.densities.add(createDensity("drawable-tvdpi", 1.33f));
+		Reflection.field("vectorDrawables").ofType(boolean.class).in(tvdpiMojo).set(true);
+		Reflection.field("downsampleExcludes").ofType(List.class).in(tvdpiMojo).set(Collections.singletonList("icon/*.svg"));
+		RasterizeSVGMojo xxhdpiMojo = createCacheKeyMojo();
+		xxhdpiMojo.densities.add(createDensity("drawable-xxhdpi", 3.00f));
+		ImageTranscoder transcoder = new TranscoderFactory().create(PNG_TYPE);
+		Density mdpi = mojo.densities.get(1);
+
+		// Execute
+		String renderKey = mojo.getCacheKey("checksum", mdpi, transcoder, "render");
+		String downsampleKey = mojo.getCacheKey("checksum", mdpi, transcoder, "downsample");
+
+		// Assert
+		assertEquals(renderKey, tvdpiMojo.getCacheKey("checksum", mdpi, transcoder, "render"));
+		assertEquals(downsampleKey, tvdpiMojo.getCacheKey("checksum", mdpi, transcoder, "downsample"));
+		assertEquals(renderKey, xxhdpiMojo.getCacheKey("checksum", mdpi, transcoder, "render"));
+		// Downsampled images depend on the largest density they are downsampled from.
+		assertFalse(downsampleKey.equals(xxhdpiMojo.getCacheKey("checksum", mdpi, transcoder, "downsample")));
+		assertFalse(renderKey.equals(downsampleKey));
+	}
+
+	/**
+	 * Helper method to create a {@link RasterizeSVGMojo} with the default densities, for generating cache keys.
+	 * 
+	 * @return
+	 */
+	private final static RasterizeSVGMojo createCacheKeyMojo() {
+		RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+		Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+		Reflection.field("pluginVersion").ofType(String.class).in(mojo).set("1.0.0");
+		Density.defaults(mojo.densities);
+		return mojo;
+	}
+
+	/**
+	 * Helper method to create a {@link Density} with the given name and scale factor.
+	 * 
+	 * @param name
+	 * @param scaleFactor
+	 * @return
+	 */
+	private final static Density createDensity(final String name, final float scaleFactor) {
+		Density density = new Density();
+		Reflection.field("name").ofType(String.class).in(density).set(name);
+		Reflection.field("scaleFactor").ofType(float.class).in(density).set(scaleFactor);
+		return density;
+	}
+
+	@Test
+	public void stripRenderingSettingsChangeTheCacheKey() throws Exception {
+		// Setup
+		RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+		Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+		Reflection.field("tiledRenderThreshold").ofType(int.class).in(mojo).set(4194304);
+		Reflection.field("tileHeight").ofType(int.class).in(mojo).set(256);
+		Density.defaults(mojo.densities);
+		ImageTranscoder transcoder = new TranscoderFactory().create(PNG_TYPE);
+		String settings = mojo.getSettings();
+		String key = mojo.getCacheKey("checksum", mojo.densities.get(0), transcoder, "render");
+
+		// Execute
+		Reflection.field("tiledRenderThreshold").ofType(int.class).in(mojo).set(0);
+		String untiledSettings = mojo.getSettings();
+		Reflection.field("tileHeight").ofType(int.class).in(mojo).set(64);
+		String tileHeightSettings = mojo.getSettings();
+
+		// Assert
+		assertFalse(settings.equals(untiledSettings));
+		assertFalse(untiledSettings.equals(tileHeightSettings));
+		assertFalse(key.equals(mojo.getCacheKey("checksum", mojo.densities.get(0), transcoder, "render")));
+	}
+
+	@Test
+	public void releaseEncoderProfile() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "baseCase");
+		File svgDir = new File(testBaseDir, "src/main/svg");
+		File targetDir = new File(testBaseDir, "target/release/res");
+
+		RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+		mojo.setLog(this.mockLogger);
+
+		Reflection.field("svgDirectory").ofType(File.class).in(mojo).set(svgDir);
+		Reflection.field("targetDir").ofType(File.class).in(mojo).set(targetDir);
+		Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+		Reflection.field("encoderProfile").ofType(String.class).in(mojo).set("release");
+
+		// @formatter:off
+		PNGExpectationHolder[] expectedPNGs = {
+				createExpectation(new File(targetDir, "drawable-ldpi/icon_main.png"), 36, 36),
+				createExpectation(new File(targetDir, "drawable-xhdpi/icon_main.png"), 96, 96),
+				createExpectation(new File(targetDir, "drawable-ldpi/image.png"),  150, 75),
+				createExpectation(new File(targetDir, "drawable-xhdpi/image.png"),  400, 200),
+		};
+		// @formatter:on
+
+		// Execute
+		mojo.execute();
+
+		// Assert
+		for (PNGExpectationHolder holder : expectedPNGs) {
+			assertTrue("Expected file " + holder.expectedFile.getAbsolutePath() + " does not exist.", holder.expectedFile.exists());
+			BufferedImage img = ImageIO.read(holder.expectedFile);
+			assertEquals("Width of generated PNG is " + img.getWidth() + "px, expected " + holder.expectedWidth + "px", holder.expectedWidth, img.getWidth());
+			assertEquals("Height of generated PNG is " + img.getHeight() + "px, expected " + holder.expectedHeight + "px", holder.expectedHeight, img.getHeight());
+		}
+	}
+
+	@Test
+	public void releaseEncoderProfileIsLossless() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "encoderProfileCase");
+
+		// Execute
+		File defaultDir = rasterizeWithEncoderProfile(testBaseDir, Constants.DEFAULT_ENCODER_PROFILE);
+		File releaseDir = rasterizeWithEncoderProfile(testBaseDir, Constants.RELEASE_ENCODER_PROFILE);
+
+		// Assert
+		for (File expected : FileUtils.getFiles(defaultDir, "**/*.png", null)) {
+			File actual = new File(releaseDir, expected.getParentFile().getName() + "/" + expected.getName());
+			assertArrayEquals("Pixels of " + actual + " differ from the default encoder's", readPixels(expected), readPixels(actual));
+			assertTrue(actual + " is " + actual.length() + " bytes, larger than the default encoder's " + expected.length() + " bytes",
+					actual.length() <= expected.length());
+		}
+	}
+
+	@Test
+	public void fastEncoderProfileIsLossless() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "encoderProfileCase");
+
+		// Execute
+		File defaultDir = rasterizeWithEncoderProfile(testBaseDir, Constants.DEFAULT_ENCODER_PROFILE);
+		File fastDir = rasterizeWithEncoderProfile(testBaseDir, Constants.FAST_ENCODER_PROFILE);
+
+		// Assert
+		for (File expected : FileUtils.getFiles(defaultDir, "**/*.png", null)) {
+			File actual = new File(fastDir, expected.getParentFile().getName() + "/" + expected.getName());
+			assertArrayEquals("Pixels of " + actual + " differ from the default encoder's", readPixels(expected), readPixels(actual));
+		}
+	}
+
+	/**
+	 * Helper method to rasterize the SVGs of the test case at the default densities with the given encoder profile.
+	 * 
+	 * @param testBaseDir
+	 * @param encoderProfile
+	 * @return the target directory the PNGs were written to.
+	 * @throws Exception
+	 */
+	private final File rasterizeWithEncoderProfile(final File testBaseDir, final String encoderProfile) throws Exception {
+		File targetDir = new File(testBaseDir, "target/" + encoderProfile + "/res");
+		RasterizeSVGMojo mojo = new RasterizeSVGMojo();
+		mojo.setLog(this.mockLogger);
+		Reflection.field("svgDirectory").ofType(File.class).in(mojo).set(new File(testBaseDir, "src/main/svg"));
+		Reflection.field("targetDir").ofType(File.class).in(mojo).set(targetDir);
+		Reflection.field("densities").ofType(List.class).in(mojo).set(new ArrayList<Density>());
+		Reflection.field("rasterizedType").ofType(String.class).in(mojo).set(PNG_TYPE);
+		Reflection.field("encoderProfile").ofType(String.class).in(mojo).set(encoderProfile);
+		mojo.execute();
+		assertEquals(12, FileUtils.getFiles(targetDir, "**/*.png", null).size());
+		return targetDir;
+	}
+
+	/**
+	 * Helper method to decode a PNG to ARGB pixels, whatever color type it is stored as. Grayscale samples are read from the raster, as
+	 * {@link BufferedImage#getRGB(int, int)} treats them as linear rather than sRGB. Fully transparent pixels are all returned as
+	 * transparent black, as their color is never seen.
+	 * 
+	 * @param png
+	 * @return the pixels, row by row.
+	 * @throws Exception
+	 */
+	private final static int[] readPixels(final File png) throws Exception {
+		BufferedImage img = ImageIO.read(png);
+		Raster raster = img.getRaster();
+		boolean gray = !(img.getColorModel() instanceof IndexColorModel) && raster.getNumBands() < 3;
+		int max = (1 << raster.getSampleModel().getSampleSize(0)) - 1;
+		int[] pixels = new int[img.getWidth() * img.getHeight()];
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++) {
+				int argb = img.getRGB(x, y);
+				if (gray) {
+					int value = raster.getSample(x, y, 0) * 255 / max;
+					int alpha = raster.getNumBands() == 2 ? raster.getSample(x, y, 1) * 255 / max : 255;
+					argb = alpha << 24 | value << 16 | value << 8 | value;
+				}
+				pixels[y * img.getWidth() + x] = (argb >>> 24) == 0 ? 0 : argb;
+			}
+		}
+		return pixels;
+	}
+
 }
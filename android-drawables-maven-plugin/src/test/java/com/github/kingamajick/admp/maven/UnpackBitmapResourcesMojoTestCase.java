@@ -19,22 +19,36 @@ import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
 import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.repository.RepositorySystem;
+import org.codehaus.plexus.util.FileUtils;
+import org.easymock.IAnswer;
 import org.fest.reflect.core.Reflection;
 import org.fest.reflect.reference.TypeRef;
 import org.junit.Test;
 
 import com.github.kingamajick.admp.maven.beans.DrawableArtifact;
+import com.github.kingamajick.admp.maven.util.UnpackManifest;
 import com.github.kingamajick.maven.utils.TestUtils;
 
 /**
@@ -145,6 +159,261 @@ public class UnpackBitmapResourcesMojoTestCase {
 		assertEquals(TEST_PNG_MD5CHSUM, TestUtils.getChecksum(unpackedImageFile));
 	}
 
+	@Test
+	public void unchangedEntriesAreNotExtractedAgain() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "baseCase");
+		File unpackLocation = new File(testBaseDir, "target/incremental");
+		File unpackedImageFile = new File(unpackLocation, "res/drawable-nodpi/image.png");
+		FileUtils.deleteDirectory(unpackLocation);
+
+		Artifact mockArtifact = createNiceMock(Artifact.class);
+		expect(mockArtifact.getFile()).andReturn(new File(testBaseDir, "drawable-artifact.zip")).anyTimes();
+		replay(mockArtifact);
+
+		UnpackBitmapResourcesMojo mojo = new UnpackBitmapResourcesMojo();
+		Reflection.field("unpackThreads").ofType(int.class).in(mojo).set(2);
+		mojo.setLog(this.mockLogger);
+
+		// Execute
+		mojo.unpackArchive(unpackLocation, Collections.singletonList(mockArtifact));
+		assertEquals(TEST_PNG_MD5CHSUM, TestUtils.getChecksum(unpackedImageFile));
+		// Unchanged, so shouldn't be written again
+		assertTrue(unpackedImageFile.setLastModified(0));
+		mojo.unpackArchive(unpackLocation, Collections.singletonList(mockArtifact));
+		assertEquals(0, unpackedImageFile.lastModified());
+		// Changed, so should be extracted again
+		FileUtils.fileWrite(unpackedImageFile.getAbsolutePath(), "changed");
+		mojo.unpackArchive(unpackLocation, Collections.singletonList(mockArtifact));
+
+		// Assert
+		assertEquals(TEST_PNG_MD5CHSUM, TestUtils.getChecksum(unpackedImageFile));
+	}
+
+	@Test
+	public void cleanRemovesFilesNoLongerOwned() throws Exception {
+		// Setup
+		File testBaseDir = new File(TEST_DIR, "baseCase");
+		File cleanDir = new File(testBaseDir, "target/clean");
+		File unpackLocation = new File(cleanDir, "unpack");
+		File manifestFile = new File(cleanDir, "unpack.properties");
+		FileUtils.deleteDirectory(cleanDir);
+		File otherZip = new File(cleanDir, "other-artifact.zip");
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(otherZip));
+		try {
+			zos.putNextEntry(new ZipEntry("res/drawable-mdpi/other.png"));
+			zos.write(new byte[] { 1, 2, 3 });
+			zos.closeEntry();
+		}
+		finally {
+			zos.close();
+		}
+
+		Artifact mockArtifact = createNiceMock(Artifact.class);
+		expect(mockArtifact.getFile()).andReturn(new File(testBaseDir, "drawable-artifact.zip")).anyTimes();
+		Artifact mockOtherArtifact = createNiceMock(Artifact.class);
+		expect(mockOtherArtifact.getFile()).andReturn(otherZip).anyTimes();
+		replay(mockArtifact, mockOtherArtifact);
+
+		UnpackBitmapResourcesMojo mojo = new UnpackBitmapResourcesMojo();
+		mojo.setLog(this.mockLogger);
+
+		// Execute, with both artifacts
+		List<Artifact> artifacts = new ArrayList<Artifact>();
+		artifacts.add(mockArtifact);
+		artifacts.add(mockOtherArtifact);
+		UnpackManifest manifest = new UnpackManifest();
+		mojo.unpackArchive(unpackLocation, artifacts, new UnpackManifest(), manifest);
+		manifest.store(manifestFile);
+
+		File unpackedImageFile = new File(unpackLocation, "res/drawable-nodpi/image.png");
+		File otherImageFile = new File(unpackLocation, "res/drawable-mdpi/other.png");
+		assertTrue(unpackedImageFile.exists());
+		assertTrue(otherImageFile.exists());
+
+		// Execute, with the other artifact removed
+		UnpackManifest previousManifest = UnpackManifest.load(manifestFile);
+		manifest = new UnpackManifest();
+		mojo.unpackArchive(unpackLocation, Collections.singletonList(mockArtifact), previousManifest, manifest);
+		mojo.cleanDrawableLocations(unpackLocation, previousManifest, manifest);
+
+		// Assert
+		assertTrue(unpackedImageFile.exists());
+		assertFalse(otherImageFile.exists());
+		assertEquals(Collections.singleton("res/drawable-nodpi/image.png"), manifest.getPaths());
+	}
+
+	@Test
+	public void identicalEntriesAreUnpackedOnceAndDivergentEntriesWarn() throws Exception {
+		// Setup
+		File conflictDir = new File(TEST_DIR, "baseCase/target/conflict");
+		File unpackLocation = new File(conflictDir, "unpack");
+		FileUtils.deleteDirectory(conflictDir);
+		Artifact first = createZipArtifact(new File(conflictDir, "first.zip"), new byte[] { 1, 2, 3 });
+		Artifact identical = createZipArtifact(new File(conflictDir, "identical.zip"), new byte[] { 1, 2, 3 });
+		Artifact divergent = createZipArtifact(new File(conflictDir, "divergent.zip"), new byte[] { 4, 5, 6 });
+
+		// Expectations, no warnings for identical entries
+		Log log = createMock(Log.class);
+		log.debug(anyObject(CharSequence.class));
+		expectLastCall().anyTimes();
+		replay(log);
+
+		UnpackBitmapResourcesMojo mojo = new UnpackBitmapResourcesMojo();
+		mojo.setLog(log);
+
+		// Execute
+		mojo.unpackArchive(unpackLocation, Arrays.asList(first, identical));
+		verify(log);
+
+		// Expectations, a single warning naming both artifacts for the divergent entry
+		reset(log);
+		log.debug(anyObject(CharSequence.class));
+		expectLastCall().anyTimes();
+		log.warn(and(contains("first_zip"), contains("divergent_zip")));
+		expectLastCall().once();
+		replay(log);
+
+		// Execute, the divergent entry should overwrite the first with a warning
+		mojo.unpackArchive(unpackLocation, Arrays.asList(first, divergent));
+
+		// Assert
+		verify(log);
+		assertEquals("\u0004\u0005\u0006", FileUtils.fileRead(new File(unpackLocation, "res/drawable-mdpi/image.png"), "ISO-8859-1"));
+	}
+
+	@Test(expected = MojoFailureException.class)
+	public void divergentEntriesFail() throws Exception {
+		// Setup
+		File conflictDir = new File(TEST_DIR, "baseCase/target/conflictFail");
+		FileUtils.deleteDirectory(conflictDir);
+		Artifact first = createZipArtifact(new File(conflictDir, "first.zip"), new byte[] { 1, 2, 3 });
+		Artifact divergent = createZipArtifact(new File(conflictDir, "divergent.zip"), new byte[] { 4, 5, 6 });
+
+		UnpackBitmapResourcesMojo mojo = new UnpackBitmapResourcesMojo();
+		Reflection.field("conflictPolicy").ofType(String.class).in(mojo).set("fail");
+		mojo.setLog(this.mockLogger);
+
+		// Execute
+		mojo.unpackArchive(new File(conflictDir, "unpack"), Arrays.asList(first, divergent));
+	}
+
+	@Test
+	public void onlySelectedDensitiesAreUnpacked() throws Exception {
+		// Setup
+		File densityDir = new File(TEST_DIR, "baseCase/target/densities");
+		File unpackLocation = new File(densityDir, "unpack");
+		FileUtils.deleteDirectory(densityDir);
+		Artifact artifact = createZipArtifact(new File(densityDir, "drawables.zip"), new byte[] { 1, 2, 3 }, "res/drawable-ldpi/image.png",
+				"res/drawable-mdpi/image.png", "res/drawable-hdpi/image.png", "res/drawable-hdpi-v11/image.png", "res/drawable-nodpi/other.png");
+
+		UnpackBitmapResourcesMojo mojo = new UnpackBitmapResourcesMojo();
+		Reflection.field("includeDensities").ofType(new TypeRef<List<String>>() {}).in(mojo).set(Arrays.asList("mdpi", "hdpi"));
+		Reflection.field("excludeDensities").ofType(new TypeRef<List<String>>() {}).in(mojo).set(Arrays.asList("hdpi"));
+		mojo.setLog(this.mockLogger);
+
+		// Execute
+		mojo.unpackArchive(unpackLocation, Arrays.asList(artifact));
+
+		// Assert
+		assertFalse(new File(unpackLocation, "res/drawable-ldpi/image.png").exists());
+		assertTrue(new File(unpackLocation, "res/drawable-mdpi/image.png").exists());
+		assertFalse(new File(unpackLocation, "res/drawable-hdpi/image.png").exists());
+		assertFalse(new File(unpackLocation, "res/drawable-hdpi-v11/image.png").exists());
+		assertTrue(new File(unpackLocation, "res/drawable-nodpi/other.png").exists());
+	}
+
+	@Test
+	public void extractionCacheIsSharedBetweenBuilds() throws Exception {
+		// Setup
+		File cacheDir = new File(TEST_DIR, "baseCase/target/extractionCache");
+		FileUtils.deleteDirectory(cacheDir);
+		File zipFile = new File(cacheDir, "repository/drawables-1.0.zip");
+		Artifact artifact = createZipArtifact(zipFile, new byte[] { 1, 2, 3 });
+		File extracted = new File(cacheDir, "repository/drawables-1.0.zip.extracted/res/drawable-mdpi/image.png");
+		File marker = new File(cacheDir, "repository/drawables-1.0.zip.extracted/.complete");
+
+		// Execute
+		UnpackBitmapResourcesMojo firstMojo = new UnpackBitmapResourcesMojo();
+		Reflection.field("useExtractionCache").ofType(boolean.class).in(firstMojo).set(true);
+		firstMojo.setLog(this.mockLogger);
+		firstMojo.unpackArchive(new File(cacheDir, "first"), Arrays.asList(artifact));
+		assertTrue(marker.isFile());
+		assertTrue(extracted.isFile());
+		long markerModified = marker.lastModified();
+		// Mark the extracted image, so that extracting the artifact again would be noticed.
+		assertTrue(extracted.setLastModified(0));
+
+		UnpackBitmapResourcesMojo secondMojo = new UnpackBitmapResourcesMojo();
+		Reflection.field("useExtractionCache").ofType(boolean.class).in(secondMojo).set(true);
+		Reflection.field("linkResources").ofType(boolean.class).in(secondMojo).set(true);
+		secondMojo.setLog(this.mockLogger);
+		secondMojo.unpackArchive(new File(cacheDir, "second"), Arrays.asList(artifact));
+
+		// Assert
+		assertEquals(markerModified, marker.lastModified());
+		assertEquals(0, extracted.lastModified());
+		File unpacked = new File(cacheDir, "second/res/drawable-mdpi/image.png");
+		assertTrue(unpacked.isFile());
+		assertEquals(TestUtils.getChecksum(extracted), TestUtils.getChecksum(unpacked));
+	}
+
+	@Test
+	public void workspaceDrawablesDontWriteThroughLinksToTheExtractionCache() throws Exception {
+		// Setup
+		File cacheDir = new File(TEST_DIR, "baseCase/target/extractionCacheLinks");
+		File unpackLocation = new File(cacheDir, "unpack");
+		FileUtils.deleteDirectory(cacheDir);
+		Artifact release = createZipArtifact(new File(cacheDir, "repository/drawables-1.0.zip"), new byte[] { 1, 2, 3 }, "res/drawable-nodpi/image.png");
+		File extracted = new File(cacheDir, "repository/drawables-1.0.zip.extracted/res/drawable-nodpi/image.png");
+		Artifact workspace = createNiceMock(Artifact.class);
+		expect(workspace.getFile()).andReturn(new File(TEST_DIR, "workspaceResolved/drawable-artifact")).anyTimes();
+		replay(workspace);
+
+		UnpackBitmapResourcesMojo mojo = new UnpackBitmapResourcesMojo();
+		Reflection.field("useExtractionCache").ofType(boolean.class).in(mojo).set(true);
+		Reflection.field("linkResources").ofType(boolean.class).in(mojo).set(true);
+		mojo.setLog(this.mockLogger);
+
+		// Execute, the release artifact is linked from the cache, then replaced by the workspace artifact.
+		mojo.unpackArchive(unpackLocation, Arrays.asList(release));
+		mojo.unpackArchive(unpackLocation, Arrays.asList(workspace));
+
+		// Assert
+		assertEquals(3, extracted.length());
+		assertEquals(TEST_PNG_MD5CHSUM, TestUtils.getChecksum(new File(unpackLocation, "res/drawable-nodpi/image.png")));
+	}
+
+	/**
+	 * Creates a zip file containing image entries with the given contents, and an artifact for it.
+	 * 
+	 * @param zipFile
+	 * @param contents
+	 * @param entryNames
+	 *            the names of the entries, if none are given a single entry <code>res/drawable-mdpi/image.png</code> is created.
+	 * @return
+	 * @throws IOException
+	 */
+	private static Artifact createZipArtifact(final File zipFile, final byte[] contents, final String... entryNames) throws IOException {
+		zipFile.getParentFile().mkdirs();
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile));
+		try {
+			for (String entryName : entryNames.length == 0 ? new String[] { "res/drawable-mdpi/image.png" } : entryNames) {
+				zos.putNextEntry(new ZipEntry(entryName));
+				zos.write(contents);
+				zos.closeEntry();
+			}
+		}
+		finally {
+			zos.close();
+		}
+		// Named after the zip file, so that messages about the artifact can be told apart.
+		Artifact artifact = createNiceMock(zipFile.getName().replace('.', '_').replace('-', '_'), Artifact.class);
+		expect(artifact.getFile()).andReturn(zipFile).anyTimes();
+		replay(artifact);
+		return artifact;
+	}
+
 	@Test(expected = MojoFailureException.class)
 	public void outputLocationDoesntExists() throws Exception {
 		// Setup
@@ -218,4 +487,84 @@ public class UnpackBitmapResourcesMojoTestCase {
 		// Execute
 		mojo.execute();
 	}
+
+	@Test
+	public void parallelResolution() throws Exception {
+		// Setup, a stand-in for a file based repository which records how many artifacts are being resolved at the same time
+		final File repository = new File(TEST_DIR, "baseCase");
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger peak = new AtomicInteger();
+		// Resolutions wait for each other on this latch, so that they overlap if they are able to.
+		final AtomicReference<CountDownLatch> overlap = new AtomicReference<CountDownLatch>();
+		RepositorySystem mockRepositorySystem = createNiceMock(RepositorySystem.class);
+		ArtifactRepository mockLocalRepository = createMock(ArtifactRepository.class);
+		List<ArtifactRepository> remoteRepositories = Collections.emptyList();
+
+		List<DrawableArtifact> drawableArtifacts = new ArrayList<DrawableArtifact>();
+		for (int i = 0; i < 8; i++) {
+			drawableArtifacts.add(new DrawableArtifact("org.test", "drawable-artifact-" + i, "0.0.0"));
+		}
+
+		UnpackBitmapResourcesMojo mojo = new UnpackBitmapResourcesMojo();
+		Reflection.field("repositorySystem").ofType(RepositorySystem.class).in(mojo).set(mockRepositorySystem);
+		Reflection.field("localRepository").ofType(ArtifactRepository.class).in(mojo).set(mockLocalRepository);
+		Reflection.field("remoteRepositories").ofType(new TypeRef<List<ArtifactRepository>>() {}).in(mojo).set(remoteRepositories);
+		mojo.setLog(this.mockLogger);
+
+		// Expectations
+		expect(mockRepositorySystem.createArtifact(anyObject(String.class), anyObject(String.class), anyObject(String.class), eq("android-drawables")))
+				.andAnswer(new IAnswer<Artifact>() {
+					public Artifact answer() throws Throwable {
+						Object[] arguments = getCurrentArguments();
+						return new DefaultArtifact((String) arguments[0], (String) arguments[1], (String) arguments[2], null, "android-drawables", null,
+								new DefaultArtifactHandler("android-drawables"));
+					}
+				}).anyTimes();
+		expect(mockRepositorySystem.resolve(anyObject(ArtifactResolutionRequest.class))).andAnswer(new IAnswer<ArtifactResolutionResult>() {
+			public ArtifactResolutionResult answer() throws Throwable {
+				Artifact artifact = ((ArtifactResolutionRequest) getCurrentArguments()[0]).getArtifact();
+				int current = inFlight.incrementAndGet();
+				try {
+					int previousPeak;
+					while ((previousPeak = peak.get()) < current && !peak.compareAndSet(previousPeak, current)) {
+						// Retry until the peak is at least the current number of resolutions in flight.
+					}
+					overlap.get().countDown();
+					overlap.get().await(5, TimeUnit.SECONDS);
+					artifact.setFile(new File(repository, "drawable-artifact.zip"));
+					artifact.setResolved(true);
+					return new ArtifactResolutionResult();
+				}
+				finally {
+					inFlight.decrementAndGet();
+				}
+			}
+		}).anyTimes();
+
+		replay(mockRepositorySystem, mockLocalRepository);
+
+		// Execute
+		Reflection.field("resolveThreads").ofType(int.class).in(mojo).set(1);
+		overlap.set(new CountDownLatch(0));
+		List<Artifact> serial = mojo.resolve(drawableArtifacts);
+		int serialPeak = peak.getAndSet(0);
+
+		int resolveThreads = 4;
+		Reflection.field("resolveThreads").ofType(int.class).in(mojo).set(resolveThreads);
+		overlap.set(new CountDownLatch(2));
+		List<Artifact> parallel = mojo.resolve(drawableArtifacts);
+		int parallelPeak = peak.get();
+
+		// Assert
+		assertEquals(1, serialPeak);
+		assertTrue("Peak of " + parallelPeak + " resolutions in flight", 1 < parallelPeak && parallelPeak <= resolveThreads);
+		assertEquals(drawableArtifacts.size(), serial.size());
+		assertEquals(drawableArtifacts.size(), parallel.size());
+		for (int i = 0; i < drawableArtifacts.size(); i++) {
+			assertEquals(drawableArtifacts.get(i).getArtifactId(), serial.get(i).getArtifactId());
+			assertEquals(drawableArtifacts.get(i).getArtifactId(), parallel.get(i).getArtifactId());
+			assertTrue(parallel.get(i).isResolved());
+		}
+	}
+
 }
@@ -20,6 +20,8 @@ import static org.junit.Assert.*;
 import java.util.Map.Entry;
 
 import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.transcoder.image.JPEGTranscoder;
+import org.apache.batik.transcoder.image.PNGTranscoder;
 import org.junit.Test;
 
 import com.github.kingamajick.admp.maven.util.Constants;
@@ -36,7 +38,7 @@ public class TranscoderFactoryTestCase {
 		TranscoderFactory factory = new TranscoderFactory();
 
 		// Execute and Assert
-		for (Entry<String, Class<? extends ImageTranscoder>> entry : Constants.VALID_TYPES.entrySet()) {
+		for (Entry<String, Class<? extends ImageTranscoder>> entry : TranscoderFactory.VALID_TYPES.entrySet()) {
 			ImageTranscoder transcoder = factory.create(entry.getKey());
 			assertEquals(entry.getValue(), transcoder.getClass());
 		}
@@ -52,4 +54,26 @@ public class TranscoderFactoryTestCase {
 		factory.create(type);
 	}
 
+	@Test
+	public void instantiatesEncoderProfiles() throws Exception {
+		// Setup
+		TranscoderFactory factory = new TranscoderFactory();
+
+		// Execute and Assert
+		assertEquals(PNGTranscoder.class, factory.create("png", Constants.DEFAULT_ENCODER_PROFILE).getClass());
+		assertEquals(PNGTranscoder.class, factory.create("png", null).getClass());
+		assertEquals(ProfiledPNGTranscoder.class, factory.create("png", ProfiledPNGTranscoder.FAST).getClass());
+		assertEquals(ProfiledPNGTranscoder.class, factory.create("png", ProfiledPNGTranscoder.RELEASE).getClass());
+		assertEquals(JPEGTranscoder.class, factory.create("jpg", ProfiledPNGTranscoder.RELEASE).getClass());
+	}
+
+	@Test(expected = TranscoderFactoryException.class)
+	public void unknownEncoderProfile() throws Exception {
+		// Setup
+		TranscoderFactory factory = new TranscoderFactory();
+
+		// Exectue
+		factory.create("png", "unknown");
+	}
+
 }
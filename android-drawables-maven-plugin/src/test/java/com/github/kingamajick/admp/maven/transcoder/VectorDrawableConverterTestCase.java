@@ -0,0 +1,153 @@
+/**
+ * Copyright 2012 R King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kingamajick.admp.maven.transcoder;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+
+import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * @author R King
+ * 
+ */
+public class VectorDrawableConverterTestCase {
+
+	private final static String SVG_START = "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"100\" height=\"100\">";
+	private final static String SVG_END = "</svg>";
+
+	/**
+	 * Helper method to parse the SVG the same way the rasterize goal does and convert it.
+	 * 
+	 * @param svg
+	 * @return the VectorDrawable XML.
+	 * @throws Exception
+	 */
+	private final static String convert(final String svg) throws Exception {
+		SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+		Document document = factory.createDocument("file:/test.svg", new StringReader(svg));
+		return new VectorDrawableConverter().convert(document);
+	}
+
+	@Test
+	public void convertsSolidPaths() throws Exception {
+		// Execute
+		String xml = convert(SVG_START + "<path d=\"M0,0 L10,10\" fill=\"#e53935\" fill-opacity=\"0.5\" />" + SVG_END);
+
+		// Assert
+		assertTrue(xml.contains("android:viewportWidth=\"100\""));
+		assertTrue(xml.contains("android:pathData=\"M0,0 L10,10\""));
+		assertTrue(xml.contains("android:fillColor=\"#80E53935\""));
+	}
+
+	@Test(expected = UnsupportedSVGException.class)
+	public void styleElementInDefs() throws Exception {
+		// Execute
+		convert(SVG_START + "<defs><style>.cls-1{fill:#e53935}</style></defs><path class=\"cls-1\" d=\"M0,0 L10,10\" />" + SVG_END);
+	}
+
+	@Test(expected = UnsupportedSVGException.class)
+	public void styleElement() throws Exception {
+		// Execute
+		convert(SVG_START + "<style>path{fill:#e53935}</style><path d=\"M0,0 L10,10\" />" + SVG_END);
+	}
+
+	@Test(expected = UnsupportedSVGException.class)
+	public void classAttribute() throws Exception {
+		// Execute
+		convert(SVG_START + "<g class=\"cls-1\"><path d=\"M0,0 L10,10\" /></g>" + SVG_END);
+	}
+
+	@Test
+	public void decomposesTransforms() throws Exception {
+		// Execute
+		String xml = convert(SVG_START + "<g transform=\"translate(10,20) rotate(90) scale(2,3)\"><path d=\"M0,0 L10,10\" /></g>"
+				+ SVG_END);
+
+		// Assert
+		assertTrue(xml.contains("android:translateX=\"10\""));
+		assertTrue(xml.contains("android:translateY=\"20\""));
+		assertTrue(xml.contains("android:rotation=\"90\""));
+		assertTrue(xml.contains("android:scaleX=\"2\""));
+		assertTrue(xml.contains("android:scaleY=\"3\""));
+	}
+
+	@Test
+	public void decomposesMatrixWithReflection() throws Exception {
+		// Execute
+		String xml = convert(SVG_START + "<path transform=\"matrix(1,0,0,-1,0,100)\" d=\"M0,0 L10,10\" />" + SVG_END);
+
+		// Assert
+		assertTrue(xml.contains("android:translateY=\"100\""));
+		assertTrue(xml.contains("android:scaleY=\"-1\""));
+		assertFalse(xml.contains("android:translateX"));
+		assertFalse(xml.contains("android:rotation"));
+		assertFalse(xml.contains("android:scaleX"));
+	}
+
+	@Test
+	public void identityTransformAddsNoGroup() throws Exception {
+		// Execute
+		String xml = convert(SVG_START + "<path transform=\"translate(0) scale(1)\" d=\"M0,0 L10,10\" />" + SVG_END);
+
+		// Assert
+		assertFalse(xml.contains("<group"));
+	}
+
+	@Test(expected = UnsupportedSVGException.class)
+	public void skewX() throws Exception {
+		// Execute
+		convert(SVG_START + "<path transform=\"skewX(30)\" d=\"M0,0 L10,10\" />" + SVG_END);
+	}
+
+	@Test(expected = UnsupportedSVGException.class)
+	public void skewInMatrix() throws Exception {
+		// Execute
+		convert(SVG_START + "<g transform=\"matrix(1,0.5,0,1,0,0)\"><path d=\"M0,0 L10,10\" /></g>" + SVG_END);
+	}
+
+	@Test
+	public void clampsRectRadiiIndependently() throws Exception {
+		// Execute
+		String xml = convert(SVG_START + "<rect width=\"10\" height=\"100\" rx=\"20\" />" + SVG_END);
+
+		// Assert
+		assertTrue(xml, xml.contains("android:pathData=\"M5,0 H5 A5,20 0 0,1 10,20 V80 A5,20 0 0,1 5,100 H5 A5,20 0 0,1 0,80 V20 A5,20 0 0,1 5,0 Z\""));
+	}
+
+	@Test
+	public void rectRadiusDefaultsToOtherRadius() throws Exception {
+		// Execute
+		String xml = convert(SVG_START + "<rect width=\"40\" height=\"20\" ry=\"4\" />" + SVG_END);
+
+		// Assert
+		assertTrue(xml, xml.contains("android:pathData=\"M4,0 H36 A4,4 0 0,1 40,4 V16 A4,4 0 0,1 36,20 H4 A4,4 0 0,1 0,16 V4 A4,4 0 0,1 4,0 Z\""));
+	}
+
+	@Test
+	public void clampsRectRadiiToTheirOwnSides() throws Exception {
+		// Execute
+		String xml = convert(SVG_START + "<rect width=\"100\" height=\"10\" rx=\"8\" ry=\"30\" />" + SVG_END);
+
+		// Assert
+		assertTrue(xml, xml.contains(" A8,5 0 0,1 100,5 "));
+	}
+
+}